@@ -0,0 +1,195 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Long-lived append-only writer for one data file. Lines are collected in a buffer and written
+// to the channel according to the durability mode:
+//   FLUSH_PER_EVENT - every line is written to the OS straight away (what FileWriter did)
+//   GROUP_COMMIT    - lines are written once batchRecords are pending or batchMillis have passed
+//   FSYNC_PER_BATCH - like GROUP_COMMIT, and every batch is forced to disk with FileChannel.force
+public class AppendWriter implements Closeable {
+    public enum Durability { FLUSH_PER_EVENT, GROUP_COMMIT, FSYNC_PER_BATCH }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "append-writer-flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Path file;
+    private final FileChannel channel;
+    private final Durability durability;
+    private final int batchRecords;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ScheduledFuture<?> timer;
+    private int pendingRecords;
+    // Where a failed batch has to be cut off the file, if that failed too; -1 if nothing to cut
+    private long cutTo = -1;
+
+    public AppendWriter(Path file, Durability durability, int batchRecords, long batchMillis) throws IOException {
+        this(file, FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND), durability, batchRecords, batchMillis);
+    }
+
+    // Writes to an already open channel positioned at the end of file (tests pass a failing one)
+    AppendWriter(Path file, FileChannel channel, Durability durability, int batchRecords, long batchMillis) {
+        this.file = file;
+        this.durability = durability;
+        this.batchRecords = Math.max(1, batchRecords);
+        this.channel = channel;
+
+        if (durability != Durability.FLUSH_PER_EVENT && batchMillis > 0) {
+            timer = FLUSHER.scheduleWithFixedDelay(this::timedFlush, batchMillis, batchMillis, TimeUnit.MILLISECONDS);
+        } else {
+            timer = null;
+        }
+    }
+
+    public void append(String line) throws IOException {
+        append((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Appends one already encoded record, e.g. a BinaryJournal entry. If it throws, the record is
+    // not stored; records appended before it stay buffered and go out with the next flush.
+    public synchronized void append(byte[] bytes) throws IOException {
+        cutFailedBatch();
+        if (durability == Durability.FLUSH_PER_EVENT || pendingRecords + 1 >= batchRecords
+                || bytes.length > buffer.remaining()) {
+            appendBatch(List.of(bytes));
+            return;
+        }
+        buffer.put(bytes);
+        pendingRecords++;
+    }
+
+    // Appends the lines as one batch, flushed (and forced) once at the end whatever the mode.
+    public void appendAll(List<String> lines) throws IOException {
+        List<byte[]> records = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            records.add((line + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        appendBatch(records);
+    }
+
+    // All or nothing: if it throws, whatever part of the batch reached the file is cut off again,
+    // so the caller can retry it without writing any record twice.
+    public synchronized void appendBatch(List<byte[]> records) throws IOException {
+        cutFailedBatch();
+        // Lines appended before the batch go out first, so the batch starts at the end of the file
+        writeBuffer();
+        long start = channel.size();
+        try {
+            for (byte[] bytes : records) {
+                put(bytes);
+            }
+            pendingRecords += records.size();
+            flush();
+        } catch (IOException e) {
+            buffer.clear();
+            pendingRecords = 0;
+            cutTo = start;
+            try {
+                cutFailedBatch();
+            } catch (IOException cutError) {
+                e.addSuppressed(cutError);
+            }
+            throw e;
+        }
+    }
+
+    // Writes everything buffered so far, and forces it to disk in FSYNC_PER_BATCH mode.
+    public synchronized void flush() throws IOException {
+        writeBuffer();
+        if (pendingRecords > 0 && durability == Durability.FSYNC_PER_BATCH) {
+            channel.force(false);
+        }
+        pendingRecords = 0;
+    }
+
+    // Writes everything buffered and forces it to disk, whatever the mode.
+    public synchronized void force() throws IOException {
+        writeBuffer();
+        channel.force(false);
+        pendingRecords = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    private synchronized void timedFlush() {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            System.out.println("Error flushing " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void cutFailedBatch() throws IOException {
+        if (cutTo >= 0) {
+            channel.truncate(cutTo);
+            cutTo = -1;
+        }
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.remaining()) {
+            writeBuffer();
+        }
+        if (bytes.length > buffer.capacity()) {
+            writeFully(ByteBuffer.wrap(bytes));
+        } else {
+            buffer.put(bytes);
+        }
+    }
+
+    // If the channel fails part way, what was not written stays at the front of the buffer for the
+    // next attempt, so nothing is lost or written twice.
+    private void writeBuffer() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        try {
+            writeFully(buffer);
+        } finally {
+            buffer.compact();
+        }
+    }
+
+    private void writeFully(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+}
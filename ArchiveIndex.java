@@ -0,0 +1,102 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+// Index of the archive segments by customer id and by plate, so the archived records of one
+// customer or vehicle are read line by line instead of by scanning every segment. For each segment
+// it keeps the offsets of each key's lines, about 8 bytes per archived record. A segment is read
+// in full on the first lookup; later lookups read only what rotation appended since, as segments
+// only grow by whole lines. One that got shorter (cut back by a startup recovery) is read again.
+// Plates are keyed like the journal replay keys them (FlatFileStorage.plateKey); a plate outside
+// that form, or a segment of 2 GB or more, is looked up by scanning the segment.
+public class ArchiveIndex {
+    private final Path dir;
+    private final Map<String, Segment> segments = new HashMap<>();
+
+    private static class Segment {
+        long indexedBytes;
+        final IntHashMap<IntList> byCustomer = new IntHashMap<>();
+        final IntHashMap<IntList> byPlate = new IntHashMap<>();
+    }
+
+    public ArchiveIndex(Path dir) {
+        this.dir = dir;
+    }
+
+    // Hands the customer's lines to the parser, segment by segment in the order of lengths (name
+    // -> bytes to read, as from RecordSegments.sizes) and in file order within each.
+    public synchronized <T> void forEachCustomerLine(Map<String, Long> lengths, int customerId, T result,
+            MappedCsvReader.LineParser<T> parser) throws IOException {
+        forEachLine(lengths, true, customerId, line -> line.parseInt(1) == customerId, result, parser);
+    }
+
+    public synchronized <T> void forEachPlateLine(Map<String, Long> lengths, String plate, T result,
+            MappedCsvReader.LineParser<T> parser) throws IOException {
+        forEachLine(lengths, false, FlatFileStorage.plateKey(plate),
+                line -> line.string(0).equalsIgnoreCase(plate), result, parser);
+    }
+
+    private <T> void forEachLine(Map<String, Long> lengths, boolean byCustomer, int key,
+            Predicate<MappedCsvReader.Line> matches, T result, MappedCsvReader.LineParser<T> parser)
+            throws IOException {
+        for (Map.Entry<String, Long> entry : lengths.entrySet()) {
+            Path file = dir.resolve(entry.getKey());
+            long length = entry.getValue();
+            if (length == 0) {
+                continue;
+            }
+            if (key < 0 || length > Integer.MAX_VALUE) {
+                for (long[] range : MappedCsvReader.lineRanges(file, length, length)) {
+                    MappedCsvReader.parseRange(file, range[0], range[1], 5, result,
+                            (line, sink) -> matches.test(line) && parser.parse(line, sink));
+                }
+                continue;
+            }
+            Segment segment = update(entry.getKey(), file, length);
+            IntList offsets = (byCustomer ? segment.byCustomer : segment.byPlate).get(key);
+            if (offsets == null) {
+                continue;
+            }
+            // The index may already cover lines appended after the caller took the lengths
+            int count = offsets.size();
+            while (count > 0 && offsets.get(count - 1) >= length) {
+                count--;
+            }
+            MappedCsvReader.parseLinesAt(file, length, offsets, count, 5, result, parser);
+        }
+    }
+
+    private Segment update(String name, Path file, long length) throws IOException {
+        Segment segment = segments.get(name);
+        if (segment == null || Files.size(file) < segment.indexedBytes) {
+            segment = new Segment();
+            segments.put(name, segment);
+        }
+        if (length > segment.indexedBytes) {
+            long base = segment.indexedBytes;
+            MappedCsvReader.parseRange(file, base, length, 2, segment, (line, target) -> {
+                int offset = (int) (base + line.start());
+                add(target.byCustomer, line.parseInt(1), offset);
+                int plateKey = FlatFileStorage.plateKey(line);
+                if (plateKey >= 0) {
+                    add(target.byPlate, plateKey, offset);
+                }
+                return true;
+            });
+            segment.indexedBytes = length;
+        }
+        return segment;
+    }
+
+    private static void add(IntHashMap<IntList> index, int key, int offset) {
+        IntList offsets = index.get(key);
+        if (offsets == null) {
+            offsets = new IntList();
+            index.put(key, offsets);
+        }
+        offsets.add(offset);
+    }
+}
@@ -0,0 +1,536 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+// Wraps another storage so rental records are journaled off the caller's thread, e.g.
+//   -Drental.async=true -Drental.ack=WRITTEN -Drental.queueCapacity=8192
+//
+// Saved records go onto a bounded queue and one writer thread drains it in batches of up to
+// maxBatch into the delegate's saveRentalRecords, so a burst of rentals costs one write per batch.
+// How long a save waits is the ack level: MEMORY returns once the record is queued, WRITTEN once
+// its batch is written, FSYNCED once it is forced to disk. whenSaved gives the same as a future.
+//
+// A full queue blocks savers until the writer catches up; those stalls are counted and timed. A
+// failed batch write is retried with backoff; the delegate stores a batch all or nothing, so a
+// retry never journals a record twice. After MAX_ATTEMPTS (fewer once closing) the batch is given
+// up: its waiting savers get the error, rather than holding their vehicles' locks while the writer
+// keeps trying, and the writer goes on with the next batch. Vehicle/customer saves, checkpoints
+// and archive reads go straight to the delegate; checkpoint and compact first wait for the queue
+// to drain. close() drains the queue, then closes the delegate.
+public class AsyncStorage implements RentalStorage {
+    // Queued by close() behind the last record; the writer stops when it reaches it
+    private static final RentalRecord END_OF_QUEUE = new RentalRecord(null, null, null, 0, "END");
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+    // About 1.3 seconds of retries with the backoff doubling from 10 ms
+    private static final int MAX_ATTEMPTS = 8;
+    private static final int ATTEMPTS_AFTER_CLOSE = 3;
+
+    private final RentalStorage delegate;
+    private final BlockingQueue<RentalRecord> queue;
+    private final int maxBatch;
+    private final RentalStorage.Ack ack;
+
+    // Held while queueing so sequence numbers follow queue order
+    private final Object enqueueLock = new Object();
+    // Held around every delegate call once the writer runs
+    private final Object writeLock = new Object();
+    private long enqueued;
+
+    // Guarded by this. written counts records settled in queue order, including given up ones.
+    private long written;
+    private long lost;
+    private long synced;
+    private long syncRequested;
+    private IOException failure;
+    private final List<Waiter> waiters = new ArrayList<>();
+
+    private final LongAdder stalls = new LongAdder();
+    private final LatencyHistogram stallTimes = new LatencyHistogram();
+    private final LatencyHistogram batchWriteTimes = new LatencyHistogram();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder writeErrors = new LongAdder();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    private Thread writer;
+    private volatile boolean closed;
+
+    private static class Waiter {
+        final long seq;
+        final RentalStorage.Ack level;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Waiter(long seq, RentalStorage.Ack level) {
+            this.seq = seq;
+            this.level = level;
+        }
+    }
+
+    public AsyncStorage(RentalStorage delegate, int capacity, int maxBatch, RentalStorage.Ack ack) {
+        this.delegate = delegate;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.maxBatch = Math.max(1, maxBatch);
+        this.ack = ack;
+    }
+
+    // If the delegate fails to load, saves fail with that error from then on instead of waiting
+    // for a journal that was never opened. The writer starts either way, so close() still works.
+    @Override
+    public void load(RentalStorage.Catalog catalog) throws IOException {
+        try {
+            delegate.load(catalog);
+        } catch (IOException | RuntimeException e) {
+            fail(e instanceof IOException ? (IOException) e : new IOException(e.toString(), e));
+            throw e;
+        } finally {
+            synchronized (this) {
+                if (writer == null) {
+                    writer = new Thread(this::writeLoop, "rental-journal-writer");
+                    writer.setDaemon(true);
+                    writer.start();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void saveVehicle(Vehicle vehicle) throws IOException {
+        synchronized (writeLock) {
+            delegate.saveVehicle(vehicle);
+        }
+    }
+
+    @Override
+    public void saveCustomer(Customer customer) throws IOException {
+        synchronized (writeLock) {
+            delegate.saveCustomer(customer);
+        }
+    }
+
+    @Override
+    public void saveVehicles(List<Vehicle> vehicles) throws IOException {
+        synchronized (writeLock) {
+            delegate.saveVehicles(vehicles);
+        }
+    }
+
+    @Override
+    public void saveCustomers(List<Customer> customers) throws IOException {
+        synchronized (writeLock) {
+            delegate.saveCustomers(customers);
+        }
+    }
+
+    @Override
+    public void saveReservation(Reservation reservation) throws IOException {
+        synchronized (writeLock) {
+            delegate.saveReservation(reservation);
+        }
+    }
+
+    @Override
+    public void deleteReservation(Reservation reservation) throws IOException {
+        synchronized (writeLock) {
+            delegate.deleteReservation(reservation);
+        }
+    }
+
+    @Override
+    public void saveRentalRecord(RentalRecord record) throws IOException {
+        saveRentalRecords(List.of(record));
+    }
+
+    // The batch is queued as a whole: once its first record is in, the rest follow even if the
+    // caller is interrupted, so the journal never holds half a batch rental.
+    @Override
+    public void saveRentalRecords(List<RentalRecord> records) throws IOException {
+        await(enqueue(records));
+    }
+
+    @Override
+    public void sync(RentalStorage.Ack level) throws IOException {
+        await(whenSaved(level));
+    }
+
+    @Override
+    public CompletableFuture<Void> whenSaved(RentalStorage.Ack level) {
+        long seq;
+        synchronized (enqueueLock) {
+            seq = enqueued;
+        }
+        return futureFor(seq, level);
+    }
+
+    @Override
+    public void checkpoint(List<Vehicle> vehicles, List<Customer> customers, List<String> aggregates)
+            throws IOException {
+        sync(RentalStorage.Ack.WRITTEN);
+        synchronized (writeLock) {
+            delegate.checkpoint(vehicles, customers, aggregates);
+        }
+    }
+
+    @Override
+    public void compact(List<Vehicle> vehicles, List<Customer> customers, List<String> aggregates)
+            throws IOException {
+        sync(RentalStorage.Ack.WRITTEN);
+        synchronized (writeLock) {
+            delegate.compact(vehicles, customers, aggregates);
+        }
+    }
+
+    @Override
+    public List<RentalRecord> archivedRecords(LocalDate from, LocalDate to) throws IOException {
+        synchronized (writeLock) {
+            return delegate.archivedRecords(from, to);
+        }
+    }
+
+    // Only opening the stream waits for the writer; the delegate's stream is read without the lock.
+    @Override
+    public Stream<RentalRecord> streamArchivedRecords(LocalDate from, LocalDate to) throws IOException {
+        synchronized (writeLock) {
+            return delegate.streamArchivedRecords(from, to);
+        }
+    }
+
+    @Override
+    public List<RentalRecord> archivedRecordsByCustomer(int customerId) throws IOException {
+        synchronized (writeLock) {
+            return delegate.archivedRecordsByCustomer(customerId);
+        }
+    }
+
+    @Override
+    public List<RentalRecord> archivedRecordsByVehicle(String licensePlate) throws IOException {
+        synchronized (writeLock) {
+            return delegate.archivedRecordsByVehicle(licensePlate);
+        }
+    }
+
+    @Override
+    public List<RentalStorage.ArchivePart> splitArchivedRecords(LocalDate from, LocalDate to, int parts)
+            throws IOException {
+        synchronized (writeLock) {
+            return delegate.splitArchivedRecords(from, to, parts);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        Thread thread;
+        synchronized (this) {
+            thread = writer;
+        }
+        if (thread != null) {
+            boolean interrupted = false;
+            // Behind any save already queueing; later ones see closed and fail
+            synchronized (enqueueLock) {
+                while (true) {
+                    try {
+                        queue.put(END_OF_QUEUE);
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        fail(new IOException("storage closed"));
+        synchronized (writeLock) {
+            delegate.close();
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    // Saves that found the queue full and had to wait
+    public long getStalls() {
+        return stalls.sum();
+    }
+
+    public LatencyHistogram getStallTimes() {
+        return stallTimes;
+    }
+
+    public LatencyHistogram getBatchWriteTimes() {
+        return batchWriteTimes;
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public synchronized long getRecordsWritten() {
+        return written - lost;
+    }
+
+    // Records in batches given up after MAX_ATTEMPTS
+    public synchronized long getRecordsLost() {
+        return lost;
+    }
+
+    public long getWriteErrors() {
+        return writeErrors.sum();
+    }
+
+    public String report() {
+        return "queue depth=" + getQueueDepth() + "/" + (getQueueDepth() + queue.remainingCapacity())
+                + " max=" + getMaxQueueDepth() + " stalls=" + getStalls() + " (" + stallTimes + ")\n"
+                + "batches=" + getBatches() + " records=" + getRecordsWritten() + " lost=" + getRecordsLost()
+                + " errors=" + getWriteErrors()
+                + " (" + batchWriteTimes + ")\n";
+    }
+
+    // Completes at the ack level once the records are saved. The waiter is registered before the
+    // records are queued, so the writer can't finish (or give up on) them before it is there.
+    private CompletableFuture<Void> enqueue(List<RentalRecord> records) throws IOException {
+        boolean interrupted = false;
+        synchronized (enqueueLock) {
+            if (closed) {
+                throw new IOException("storage closed");
+            }
+            IOException failed;
+            synchronized (this) {
+                failed = failure;
+            }
+            if (failed != null) {
+                throw new IOException("journal unavailable: " + failed.getMessage(), failed);
+            }
+            CompletableFuture<Void> saved = futureFor(enqueued + records.size(), ack);
+            for (RentalRecord record : records) {
+                if (!queue.offer(record)) {
+                    stalls.increment();
+                    long start = System.nanoTime();
+                    while (true) {
+                        try {
+                            queue.put(record);
+                            break;
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                    stallTimes.recordSince(start);
+                }
+            }
+            enqueued += records.size();
+            int depth = queue.size();
+            if (depth > maxQueueDepth.get()) {
+                maxQueueDepth.accumulateAndGet(depth, Math::max);
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return saved;
+        }
+    }
+
+    private CompletableFuture<Void> futureFor(long seq, RentalStorage.Ack level) {
+        boolean syncNow = false;
+        synchronized (this) {
+            if (level == RentalStorage.Ack.MEMORY || reached(seq, level)) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (failure != null) {
+                return CompletableFuture.failedFuture(failure);
+            }
+            if (level == RentalStorage.Ack.FSYNCED) {
+                syncRequested = Math.max(syncRequested, seq);
+                // Already written but not yet forced: nothing will wake the writer, so force here
+                syncNow = written >= seq;
+            }
+            if (!syncNow) {
+                Waiter waiter = new Waiter(seq, level);
+                waiters.add(waiter);
+                return waiter.future;
+            }
+        }
+        try {
+            forceWritten();
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private boolean reached(long seq, RentalStorage.Ack level) {
+        return level == RentalStorage.Ack.FSYNCED ? synced >= seq : written >= seq;
+    }
+
+    private static void await(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for the journal");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    private void writeLoop() {
+        List<RentalRecord> batch = new ArrayList<>(maxBatch);
+        boolean end = false;
+        while (!end) {
+            batch.clear();
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(batch, maxBatch - 1);
+            if (batch.get(batch.size() - 1) == END_OF_QUEUE) {
+                batch.remove(batch.size() - 1);
+                end = true;
+            }
+            if (batch.isEmpty() || !writeBatch(batch)) {
+                continue;
+            }
+            boolean syncDue;
+            synchronized (this) {
+                syncDue = ack == RentalStorage.Ack.FSYNCED || syncRequested > synced;
+            }
+            if (syncDue) {
+                try {
+                    forceWritten();
+                } catch (IOException | RuntimeException e) {
+                    writeErrors.increment();
+                    System.out.println("Error forcing rental records to disk: " + e.getMessage());
+                }
+            }
+            completeWaiters();
+        }
+    }
+
+    // Retries until the batch is written or MAX_ATTEMPTS have failed (ATTEMPTS_AFTER_CLOSE once
+    // closing), then gives it up.
+    private boolean writeBatch(List<RentalRecord> batch) {
+        long backoff = 10;
+        int attemptsAfterClose = 0;
+        for (int attempt = 1; ; attempt++) {
+            long start = System.nanoTime();
+            try {
+                synchronized (writeLock) {
+                    delegate.saveRentalRecords(batch);
+                }
+                batchWriteTimes.recordSince(start);
+                batches.increment();
+                synchronized (this) {
+                    written += batch.size();
+                }
+                return true;
+            } catch (IOException | RuntimeException e) {
+                // A RuntimeException from the delegate must not end the writer thread, or every
+                // saver behind this batch would wait forever
+                writeErrors.increment();
+                if (attempt >= MAX_ATTEMPTS || closed && ++attemptsAfterClose >= ATTEMPTS_AFTER_CLOSE) {
+                    System.out.println("Error saving rental records, " + batch.size() + " records lost: " + e.getMessage());
+                    giveUp(batch, e instanceof IOException ? (IOException) e : new IOException(e.toString(), e));
+                    return false;
+                }
+                System.out.println("Error saving rental records, retrying: " + e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ignored) {
+                    // retry straight away
+                }
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    private void forceWritten() throws IOException {
+        long upTo;
+        synchronized (writeLock) {
+            synchronized (this) {
+                upTo = written;
+            }
+            delegate.sync(RentalStorage.Ack.FSYNCED);
+        }
+        synchronized (this) {
+            synced = Math.max(synced, upTo);
+        }
+        completeWaiters();
+    }
+
+    private void completeWaiters() {
+        List<Waiter> done = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<Waiter> it = waiters.iterator(); it.hasNext(); ) {
+                Waiter waiter = it.next();
+                if (reached(waiter.seq, waiter.level)) {
+                    done.add(waiter);
+                    it.remove();
+                }
+            }
+        }
+        for (Waiter waiter : done) {
+            waiter.future.complete(null);
+        }
+    }
+
+    // Settles the batch's place in the queue order as lost and fails the savers waiting on it;
+    // those waiting on later records are untouched.
+    private void giveUp(List<RentalRecord> batch, IOException e) {
+        List<Waiter> failed = new ArrayList<>();
+        synchronized (this) {
+            long first = written;
+            written += batch.size();
+            lost += batch.size();
+            for (Iterator<Waiter> it = waiters.iterator(); it.hasNext(); ) {
+                Waiter waiter = it.next();
+                if (waiter.seq > first && waiter.seq <= written) {
+                    failed.add(waiter);
+                    it.remove();
+                }
+            }
+        }
+        for (Waiter waiter : failed) {
+            waiter.future.completeExceptionally(e);
+        }
+    }
+
+    private void fail(IOException e) {
+        List<Waiter> failed;
+        synchronized (this) {
+            if (failure == null) {
+                failure = e;
+            }
+            failed = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        for (Waiter waiter : failed) {
+            waiter.future.completeExceptionally(e);
+        }
+    }
+}
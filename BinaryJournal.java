@@ -0,0 +1,261 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.zip.CRC32;
+
+// Fixed-width binary alternative to the CSV rental record journal.
+//
+// Header (8 bytes): magic "RJNL", version (short), record size (short)
+// Record (27 bytes): plate (6 ASCII bytes), customer id (int), epoch day (int),
+//                    amount (double bits, long), type (byte: 0 RENT, 1 RETURN), CRC32 of the
+//                    preceding 23 bytes (int)
+//
+// Amounts are stored as raw double bits so converting CSV -> binary -> CSV is lossless.
+public class BinaryJournal {
+    public static final int HEADER_SIZE = 8;
+    public static final int RECORD_SIZE = 27;
+    public static final short VERSION = 1;
+
+    private static final byte[] MAGIC = { 'R', 'J', 'N', 'L' };
+    private static final int PLATE_LENGTH = 6;
+    private static final String[] TYPES = { "RENT", "RETURN" };
+
+    public interface RecordSink {
+        // Returns false if the record could not be used (e.g. unknown plate or customer)
+        boolean accept(String plate, int customerId, LocalDate date, double amount, String type);
+    }
+
+    public static class ReadStats {
+        public int parsed;
+        public int skipped;
+    }
+
+    // True if the file starts with the binary journal magic.
+    public static boolean isBinary(Path file) throws IOException {
+        if (!Files.exists(file) || Files.size(file) < MAGIC.length) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+            channel.read(magic, 0);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (magic.get(i) != MAGIC[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public static byte[] header() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        buffer.put(MAGIC).putShort(VERSION).putShort((short) RECORD_SIZE);
+        return buffer.array();
+    }
+
+    public static byte[] encode(RentalRecord record) {
+        return encode(record.getVehicle().getLicensePlate(), record.getCustomer().getCustomerId(),
+                record.getRecordDate(), record.getTotalAmount(), record.getRecordType());
+    }
+
+    public static byte[] encode(String plate, int customerId, LocalDate date, double amount, String type) {
+        if (plate == null || plate.length() != PLATE_LENGTH) {
+            throw new IllegalArgumentException("Binary journal needs a " + PLATE_LENGTH + " character plate: " + plate);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        buffer.put(plate.getBytes(StandardCharsets.US_ASCII))
+                .putInt(customerId)
+                .putInt((int) date.toEpochDay())
+                .putLong(Double.doubleToRawLongBits(amount))
+                .put(typeCode(type));
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, RECORD_SIZE - 4);
+        buffer.putInt((int) crc.getValue());
+        return buffer.array();
+    }
+
+    // Reads every record through a memory mapped view of the file. Records with a bad checksum
+    // and a trailing partial record are counted as skipped.
+    public static ReadStats read(Path file, RecordSink sink) throws IOException {
+        ReadStats stats = new ReadStats();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            checkHeader(channel, file);
+
+            // Map in windows of whole records so files larger than 2 GB work too
+            long windowRecords = Integer.MAX_VALUE / RECORD_SIZE;
+            long position = HEADER_SIZE;
+            byte[] raw = new byte[RECORD_SIZE];
+            ByteBuffer record = ByteBuffer.wrap(raw);
+            byte[] plate = new byte[PLATE_LENGTH];
+            CRC32 crc = new CRC32();
+            while (size - position >= RECORD_SIZE) {
+                long records = Math.min(windowRecords, (size - position) / RECORD_SIZE);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, records * RECORD_SIZE);
+                for (long r = 0; r < records; r++) {
+                    window.get(raw);
+                    crc.reset();
+                    crc.update(raw, 0, RECORD_SIZE - 4);
+
+                    record.clear();
+                    record.get(plate);
+                    int customerId = record.getInt();
+                    int epochDay = record.getInt();
+                    double amount = Double.longBitsToDouble(record.getLong());
+                    byte type = record.get();
+                    int checksum = record.getInt();
+
+                    if (checksum != (int) crc.getValue() || type < 0 || type >= TYPES.length) {
+                        stats.skipped++;
+                        continue;
+                    }
+                    if (sink.accept(new String(plate, StandardCharsets.US_ASCII), customerId,
+                            LocalDate.ofEpochDay(epochDay), amount, TYPES[type])) {
+                        stats.parsed++;
+                    } else {
+                        stats.skipped++;
+                    }
+                }
+                position += records * RECORD_SIZE;
+            }
+            if (position < size) {
+                stats.skipped++;
+            }
+        }
+        return stats;
+    }
+
+    // Offset just past the last whole record with a good checksum. Records are fixed width, so a
+    // write torn by a crash shows up as a partial record, or records failing their checksum, at
+    // the end; damaged records further back are left for read to skip.
+    public static long validLength(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            checkHeader(channel, file);
+            long end = channel.size() - (channel.size() - HEADER_SIZE) % RECORD_SIZE;
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            CRC32 crc = new CRC32();
+            while (end > HEADER_SIZE) {
+                record.clear();
+                while (record.hasRemaining() && channel.read(record, end - RECORD_SIZE + record.position()) > 0) {
+                    // keep reading
+                }
+                crc.reset();
+                crc.update(record.array(), 0, RECORD_SIZE - 4);
+                byte type = record.get(RECORD_SIZE - 5);
+                if (record.getInt(RECORD_SIZE - 4) == (int) crc.getValue() && type >= 0 && type < TYPES.length) {
+                    break;
+                }
+                end -= RECORD_SIZE;
+            }
+            return end;
+        }
+    }
+
+    // Converts a CSV journal (plate,customerId,date,amount,type per line) to the binary format.
+    public static ReadStats csvToBinary(Path csv, Path binary) throws IOException {
+        ReadStats stats = new ReadStats();
+        try (BufferedReader reader = Files.newBufferedReader(csv);
+             FileChannel out = FileChannel.open(binary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            buffer.put(header());
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",");
+                byte[] record;
+                try {
+                    if (parts.length < 5) {
+                        throw new IllegalArgumentException("expected 5 fields");
+                    }
+                    record = encode(parts[0], Integer.parseInt(parts[1]), LocalDate.parse(parts[2]),
+                            Double.parseDouble(parts[3]), parts[4]);
+                } catch (IllegalArgumentException | DateTimeParseException e) {
+                    System.out.println("Skipping unconvertible line \"" + line + "\": " + e.getMessage());
+                    stats.skipped++;
+                    continue;
+                }
+                if (buffer.remaining() < RECORD_SIZE) {
+                    writeFully(out, buffer);
+                }
+                buffer.put(record);
+                stats.parsed++;
+            }
+            writeFully(out, buffer);
+        }
+        return stats;
+    }
+
+    public static ReadStats binaryToCsv(Path binary, Path csv) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(csv)) {
+            return read(binary, (plate, customerId, date, amount, type) -> {
+                try {
+                    writer.write(plate + "," + customerId + "," + date + "," + amount + "," + type + "\n");
+                    return true;
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // java BinaryJournal to-binary rental_record.txt rental_record.bin
+    // java BinaryJournal to-csv rental_record.bin rental_record.txt
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !(args[0].equals("to-binary") || args[0].equals("to-csv"))) {
+            System.out.println("Usage: java BinaryJournal (to-binary|to-csv) <source> <target>");
+            return;
+        }
+        Path source = Paths.get(args[1]);
+        Path target = Paths.get(args[2]);
+        ReadStats stats = args[0].equals("to-binary") ? csvToBinary(source, target) : binaryToCsv(source, target);
+        System.out.println("Converted " + stats.parsed + " records, " + stats.skipped + " skipped");
+    }
+
+    private static void checkHeader(FileChannel channel, Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        for (byte b : MAGIC) {
+            if (!header.hasRemaining() || header.get() != b) {
+                throw new IOException("Not a binary rental journal: " + file);
+            }
+        }
+        short version = header.getShort();
+        short recordSize = header.getShort();
+        if (version != VERSION || recordSize != RECORD_SIZE) {
+            throw new IOException("Unsupported binary journal version " + version + " in " + file);
+        }
+    }
+
+    private static byte typeCode(String type) {
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i].equals(type)) {
+                return (byte) i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown record type: " + type);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,125 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// RentalHistory that keeps records as parallel primitive arrays instead of RentalRecord objects:
+// plate index, customer id, epoch day, amount in cents and a record type code. RentalRecord
+// instances are only built when a query returns them. Amounts are rounded to whole cents.
+// Enable with -Drental.compactHistory=true.
+public class CompactRentalHistory extends RentalHistory {
+    private int[] plateIndexes = new int[16];
+    private int[] customerIds = new int[16];
+    private int[] epochDays = new int[16];
+    private long[] amountCents = new long[16];
+    private byte[] typeCodes = new byte[16];
+    private int count;
+
+    // Shared lookup tables: one entry per vehicle, customer and record type, not per record
+    private List<Vehicle> vehicleTable = new ArrayList<>();
+    private Map<String, Integer> plateIndexByPlate = new HashMap<>();
+    private IntHashMap<Customer> customerTable = new IntHashMap<>();
+    private List<String> typeTable = new ArrayList<>(Arrays.asList("RENT", "RETURN"));
+
+    @Override
+    protected void store(RentalRecord record) {
+        if (count == plateIndexes.length) {
+            grow();
+        }
+        Customer customer = record.getCustomer();
+        if (!customerTable.containsKey(customer.getCustomerId())) {
+            customerTable.put(customer.getCustomerId(), customer);
+        }
+
+        plateIndexes[count] = plateIndex(record.getVehicle());
+        customerIds[count] = customer.getCustomerId();
+        epochDays[count] = (int) record.getRecordDate().toEpochDay();
+        amountCents[count] = Math.round(record.getTotalAmount() * 100);
+        typeCodes[count] = typeCode(record.getRecordType());
+        count++;
+    }
+
+    @Override
+    protected RentalRecord recordAt(int position) {
+        if (position < 0 || position >= count) {
+            throw new IndexOutOfBoundsException("Index: " + position + ", Size: " + count);
+        }
+        return new RentalRecord(vehicleTable.get(plateIndexes[position]),
+                customerTable.get(customerIds[position]),
+                LocalDate.ofEpochDay(epochDays[position]),
+                amountCents[position] / 100.0,
+                typeTable.get(typeCodes[position]));
+    }
+
+    // The column arrays are only appended to, and replaced by copies when they grow, so the
+    // current ones can be kept; the lookup tables are copied, which costs one entry per vehicle
+    // and customer.
+    @Override
+    protected Snapshot newSnapshot() {
+        int size = count;
+        int[] plates = plateIndexes;
+        int[] customerIdColumn = customerIds;
+        int[] days = epochDays;
+        long[] cents = amountCents;
+        byte[] types = typeCodes;
+        Vehicle[] vehicles = vehicleTable.toArray(new Vehicle[0]);
+        IntHashMap<Customer> customers = new IntHashMap<>(customerTable.size());
+        for (int id : customerTable.keys()) {
+            customers.put(id, customerTable.get(id));
+        }
+        String[] typeNames = typeTable.toArray(new String[0]);
+        return new Snapshot() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public RentalRecord get(int position) {
+                if (position < 0 || position >= size) {
+                    throw new IndexOutOfBoundsException("Index: " + position + ", Size: " + size);
+                }
+                return new RentalRecord(vehicles[plates[position]], customers.get(customerIdColumn[position]),
+                        LocalDate.ofEpochDay(days[position]), cents[position] / 100.0, typeNames[types[position]]);
+            }
+        };
+    }
+
+    @Override
+    protected int recordCount() {
+        return count;
+    }
+
+    private int plateIndex(Vehicle vehicle) {
+        Integer index = plateIndexByPlate.get(vehicle.getLicensePlate());
+        if (index == null) {
+            index = vehicleTable.size();
+            vehicleTable.add(vehicle);
+            plateIndexByPlate.put(vehicle.getLicensePlate(), index);
+        }
+        return index;
+    }
+
+    private byte typeCode(String type) {
+        int code = typeTable.indexOf(type);
+        if (code < 0) {
+            if (typeTable.size() > Byte.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many distinct record types: " + type);
+            }
+            code = typeTable.size();
+            typeTable.add(type);
+        }
+        return (byte) code;
+    }
+
+    private void grow() {
+        int capacity = plateIndexes.length + (plateIndexes.length >> 1);
+        plateIndexes = Arrays.copyOf(plateIndexes, capacity);
+        customerIds = Arrays.copyOf(customerIds, capacity);
+        epochDays = Arrays.copyOf(epochDays, capacity);
+        amountCents = Arrays.copyOf(amountCents, capacity);
+        typeCodes = Arrays.copyOf(typeCodes, capacity);
+    }
+}
@@ -0,0 +1,38 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// fsync helpers for files that are written to a temp file and renamed into place. The rename only
+// survives a power loss once the directory holding it is forced, and the new contents only if the
+// temp file was forced before the rename.
+public class DurableFiles {
+    private DurableFiles() {
+    }
+
+    public static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    // Forces the directory's entries (new files, renames) to disk. Some platforms (Windows) can't
+    // open a directory; there the file system is left to order the rename itself.
+    public static void forceDirectory(Path dir) throws IOException {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // not supported here
+        }
+    }
+
+    // Forces tmp, moves it over target atomically and forces the directory.
+    public static void replace(Path tmp, Path target) throws IOException {
+        force(tmp);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(target.toAbsolutePath().getParent());
+    }
+}
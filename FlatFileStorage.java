@@ -0,0 +1,1035 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// The original text file layout in one directory: vehicles.txt, customers.txt, the live
+// rental_record.txt journal (FramedJournal, BinaryJournal or plain CSV), snapshot.txt and the
+// monthly archive segments. A plain CSV journal left by an older version is rewritten as framed
+// entries on load, unless CSV is the configured format.
+public class FlatFileStorage implements RentalStorage {
+    private static final String VEHICLE_FILE = "vehicles.txt";
+    private static final String CUSTOMER_FILE = "customers.txt";
+    private static final String RECORD_FILE = "rental_record.txt";
+    private static final String SNAPSHOT_FILE = "snapshot.txt";
+    private static final String RESERVATION_FILE = "reservations.txt";
+
+    // Durability of the append writers, e.g. -Drental.durability=GROUP_COMMIT -Drental.batchRecords=512
+    private static final AppendWriter.Durability DURABILITY = AppendWriter.Durability.valueOf(
+            System.getProperty("rental.durability", AppendWriter.Durability.FLUSH_PER_EVENT.name()));
+    private static final int BATCH_RECORDS = Integer.getInteger("rental.batchRecords", 256);
+    private static final long BATCH_MILLIS = Long.getLong("rental.batchMillis", 50L);
+    // Format for a new (empty) journal, -Drental.journalFormat=framed (default), binary or csv; an
+    // existing binary or framed journal keeps its format, and a CSV one is converted to framed
+    private static final JournalFormat NEW_JOURNAL_FORMAT = JournalFormat.valueOf(
+            System.getProperty("rental.journalFormat", "framed").toUpperCase());
+    private static final String TORN_SUFFIX = ".torn";
+
+    private enum JournalFormat {
+        CSV,
+        BINARY,
+        FRAMED
+    }
+
+    private final Path dataDir;
+    private final RecordSegments archive;
+    private final ArchiveIndex archiveIndex;
+    private RentalStorage.Catalog catalog;
+    private AppendWriter vehicleWriter;
+    private AppendWriter customerWriter;
+    private AppendWriter recordWriter;
+    private AppendWriter reservationWriter;
+    private JournalFormat journalFormat = NEW_JOURNAL_FORMAT;
+
+    public FlatFileStorage(Path dataDir) {
+        this.dataDir = dataDir;
+        this.archive = new RecordSegments(dataDir);
+        this.archiveIndex = new ArchiveIndex(dataDir);
+    }
+
+    @Override
+    public void load(RentalStorage.Catalog catalog) throws IOException {
+        this.catalog = catalog;
+        try {
+            journalFormat = detectJournalFormat();
+            recoverJournal();
+            if (fileSize(RECORD_FILE) == 0) {
+                journalFormat = NEW_JOURNAL_FORMAT;
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading rental records: " + e.getMessage());
+        }
+
+        // Vehicles and customers first so the record replay resolves through them
+        List<Vehicle> vehicles = loadVehicles();
+        IntHashMap<Customer> customers = new IntHashMap<>();
+        FleetSnapshot snapshot = recoverSnapshot(customers);
+        loadCustomers(snapshot == null ? 0 : snapshot.getCustomersBytes(), customers);
+        // Only once recoverSnapshot has dropped any archived prefix, as the offsets change
+        if (journalFormat == JournalFormat.CSV && NEW_JOURNAL_FORMAT != JournalFormat.CSV
+                && (snapshot != null || !Files.exists(file(SNAPSHOT_FILE)))) {
+            convertCsvJournal();
+        }
+        loadRentalRecords(vehicles, customers);
+        loadReservations();
+        openWriters();
+    }
+
+    @Override
+    public void saveVehicle(Vehicle vehicle) throws IOException {
+        vehicleWriter.append(vehicleLine(vehicle));
+    }
+
+    @Override
+    public void saveCustomer(Customer customer) throws IOException {
+        customerWriter.append(customerLine(customer));
+    }
+
+    @Override
+    public void saveVehicles(List<Vehicle> vehicles) throws IOException {
+        List<String> lines = new ArrayList<>(vehicles.size());
+        for (Vehicle vehicle : vehicles) {
+            lines.add(vehicleLine(vehicle));
+        }
+        vehicleWriter.appendAll(lines);
+    }
+
+    @Override
+    public void saveCustomers(List<Customer> customers) throws IOException {
+        List<String> lines = new ArrayList<>(customers.size());
+        for (Customer customer : customers) {
+            lines.add(customerLine(customer));
+        }
+        customerWriter.appendAll(lines);
+    }
+
+    @Override
+    public void saveRentalRecord(RentalRecord record) throws IOException {
+        if (journalFormat == JournalFormat.CSV) {
+            recordWriter.append(recordLine(record));
+        } else {
+            recordWriter.append(encodeRecord(record));
+        }
+    }
+
+    @Override
+    public void saveRentalRecords(List<RentalRecord> records) throws IOException {
+        List<byte[]> encoded = new ArrayList<>(records.size());
+        for (RentalRecord record : records) {
+            encoded.add(journalFormat == JournalFormat.CSV
+                    ? (recordLine(record) + "\n").getBytes(StandardCharsets.UTF_8) : encodeRecord(record));
+        }
+        recordWriter.appendBatch(encoded);
+    }
+
+    @Override
+    public void sync(RentalStorage.Ack level) throws IOException {
+        if (level == RentalStorage.Ack.FSYNCED) {
+            recordWriter.force();
+        } else if (level == RentalStorage.Ack.WRITTEN) {
+            recordWriter.flush();
+        }
+    }
+
+    // Reservation changes are appended as RESERVE/CANCEL lines and flushed straight away
+    @Override
+    public void saveReservation(Reservation reservation) throws IOException {
+        reservationWriter.appendAll(List.of(reservationLine("RESERVE", reservation)));
+    }
+
+    @Override
+    public void deleteReservation(Reservation reservation) throws IOException {
+        reservationWriter.appendAll(List.of(reservationLine("CANCEL", reservation)));
+    }
+
+    // Writes the current vehicle statuses and customer table to snapshot.txt and rotates the
+    // live journal into the monthly archive segments, so the next startup only replays records
+    // written after this point.
+    @Override
+    public void checkpoint(List<Vehicle> vehicles, List<Customer> customers, List<String> aggregates)
+            throws IOException {
+        closeWriters();
+        try {
+            writeSnapshot(vehicles, customers, fileSize(CUSTOMER_FILE), aggregates);
+        } finally {
+            openWriters();
+        }
+    }
+
+    // Rewrites vehicles.txt and customers.txt with one line per known vehicle/customer, then takes
+    // a snapshot which empties the live journal.
+    @Override
+    public void compact(List<Vehicle> vehicles, List<Customer> customers, List<String> aggregates)
+            throws IOException {
+        closeWriters();
+        try {
+            rewriteFile(VEHICLE_FILE, vehicles, FlatFileStorage::vehicleLine);
+            rewriteFile(CUSTOMER_FILE, customers, FlatFileStorage::customerLine);
+            writeSnapshot(vehicles, customers, fileSize(CUSTOMER_FILE), aggregates);
+        } finally {
+            openWriters();
+        }
+    }
+
+    // Only the segments for the months in the range are read.
+    @Override
+    public List<RentalRecord> archivedRecords(LocalDate from, LocalDate to) throws IOException {
+        try (Stream<RentalRecord> records = streamArchivedRecords(from, to)) {
+            return records.collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Segments only ever grow by whole lines between startups, so reading each one up to the
+    // length it had at the call gives exactly the records archived by then. One segment is open
+    // at a time.
+    @Override
+    public Stream<RentalRecord> streamArchivedRecords(LocalDate from, LocalDate to) throws IOException {
+        Map<String, Long> lengths = archive.sizes();
+        List<Path> segments = from == null || to == null ? archive.list() : archive.overlapping(from, to);
+        return segments.stream()
+                .filter(segment -> lengths.containsKey(segment.getFileName().toString()))
+                .flatMap(segment -> segmentLines(segment, lengths.get(segment.getFileName().toString())))
+                .map(this::parseRecord)
+                .filter(record -> record != null && (from == null || !record.getRecordDate().isBefore(from))
+                        && (to == null || !record.getRecordDate().isAfter(to)));
+    }
+
+    // Each segment in the range, up to its length at the call, cut at line boundaries into ranges
+    // of about an equal share of the bytes; each part is parsed from a memory mapped range.
+    @Override
+    public List<RentalStorage.ArchivePart> splitArchivedRecords(LocalDate from, LocalDate to, int parts)
+            throws IOException {
+        Map<String, Long> lengths = archive.sizes();
+        List<Path> segments = new ArrayList<>();
+        long total = 0;
+        for (Path segment : from == null || to == null ? archive.list() : archive.overlapping(from, to)) {
+            Long length = lengths.get(segment.getFileName().toString());
+            if (length != null && length > 0) {
+                segments.add(segment);
+                total += length;
+            }
+        }
+        long target = total / Math.max(1, parts) + 1;
+        List<RentalStorage.ArchivePart> result = new ArrayList<>();
+        for (Path segment : segments) {
+            for (long[] range : MappedCsvReader.lineRanges(segment, lengths.get(segment.getFileName().toString()),
+                    target)) {
+                result.add(action -> MappedCsvReader.parseRange(segment, range[0], range[1], 5, action,
+                        (line, sink) -> archivedRecord(line, from, to, sink)));
+            }
+        }
+        return result;
+    }
+
+    // Through the archive index, which reads only the customer's lines of each segment.
+    @Override
+    public List<RentalRecord> archivedRecordsByCustomer(int customerId) throws IOException {
+        List<RentalRecord> result = new ArrayList<>();
+        archiveIndex.forEachCustomerLine(archive.sizes(), customerId, result,
+                (line, records) -> archivedRecord(line, null, null, records::add));
+        return result;
+    }
+
+    @Override
+    public List<RentalRecord> archivedRecordsByVehicle(String licensePlate) throws IOException {
+        List<RentalRecord> result = new ArrayList<>();
+        archiveIndex.forEachPlateLine(archive.sizes(), licensePlate, result,
+                (line, records) -> archivedRecord(line, null, null, records::add));
+        return result;
+    }
+
+    // Hands an archive line dated from..to to sink; false if it is malformed or unresolvable.
+    private boolean archivedRecord(MappedCsvReader.Line line, LocalDate from, LocalDate to,
+            Consumer<? super RentalRecord> sink) {
+        if (line.fieldCount() < 5) {
+            return false;
+        }
+        LocalDate date = line.parseDate(2);
+        if ((from != null && date.isBefore(from)) || (to != null && date.isAfter(to))) {
+            return true;
+        }
+        Vehicle vehicle = catalog.findVehicleByPlate(line.string(0));
+        Customer customer = catalog.findCustomerById(line.parseInt(1));
+        if (vehicle == null || customer == null) {
+            return false;
+        }
+        sink.accept(new RentalRecord(vehicle, customer, date, line.parseDecimal(3), recordType(line)));
+        return true;
+    }
+
+    private static Stream<String> segmentLines(Path segment, long length) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new BoundedInputStream(Files.newInputStream(segment), length), StandardCharsets.UTF_8));
+            return reader.lines().onClose(() -> {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        closeWriters();
+    }
+
+    private void openWriters() {
+        try {
+            vehicleWriter = new AppendWriter(file(VEHICLE_FILE), DURABILITY, BATCH_RECORDS, BATCH_MILLIS);
+            customerWriter = new AppendWriter(file(CUSTOMER_FILE), DURABILITY, BATCH_RECORDS, BATCH_MILLIS);
+            recordWriter = new AppendWriter(file(RECORD_FILE), DURABILITY, BATCH_RECORDS, BATCH_MILLIS);
+            reservationWriter = new AppendWriter(file(RESERVATION_FILE), DURABILITY, BATCH_RECORDS, BATCH_MILLIS);
+            if (journalFormat != JournalFormat.CSV && fileSize(RECORD_FILE) == 0) {
+                recordWriter.append(journalFormat == JournalFormat.BINARY ? BinaryJournal.header() : FramedJournal.header());
+                recordWriter.flush();
+            }
+        } catch (IOException e) {
+            System.out.println("Error opening data files: " + e.getMessage());
+        }
+    }
+
+    private void closeWriters() {
+        for (AppendWriter writer : new AppendWriter[] { vehicleWriter, customerWriter, recordWriter, reservationWriter }) {
+            if (writer == null) {
+                continue;
+            }
+            try {
+                writer.close();
+            } catch (IOException e) {
+                System.out.println("Error closing " + writer.getFile() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static String vehicleLine(Vehicle vehicle) {
+        StringBuilder sb = new StringBuilder();
+
+        if (vehicle instanceof Car) {
+            Car car = (Car) vehicle;
+            sb.append("Car,")
+                    .append(car.getLicensePlate()).append(",")
+                    .append(car.getMake()).append(",")
+                    .append(car.getModel()).append(",")
+                    .append(car.getYear()).append(",")
+                    .append(car.getNumSeats());
+
+        } else if (vehicle instanceof Motorcycle) {
+            Motorcycle moto = (Motorcycle) vehicle;
+            sb.append("Motorcycle,")
+                    .append(moto.getLicensePlate()).append(",")
+                    .append(moto.getMake()).append(",")
+                    .append(moto.getModel()).append(",")
+                    .append(moto.getYear()).append(",")
+                    .append(moto.hasSidecar());
+        } else if (vehicle instanceof Truck) {
+            Truck truck = (Truck) vehicle;
+            sb.append("Truck,")
+                    .append(truck.getLicensePlate()).append(",")
+                    .append(truck.getMake()).append(",")
+                    .append(truck.getModel()).append(",")
+                    .append(truck.getYear()).append(",")
+                    .append(truck.getCargoCapacity());
+        }
+        return sb.toString();
+    }
+
+    private static String customerLine(Customer customer) {
+        return customer.getCustomerId() + "," + customer.getCustomerName();
+    }
+
+    private static String reservationLine(String action, Reservation reservation) {
+        return action + "," +
+                reservation.getVehicle().getLicensePlate() + "," +
+                reservation.getCustomer().getCustomerId() + "," +
+                reservation.getStartDate() + "," +
+                reservation.getEndDate();
+    }
+
+    private static String recordLine(RentalRecord record) {
+        return record.getVehicle().getLicensePlate() + "," +
+                record.getCustomer().getCustomerId() + "," +
+                record.getRecordDate() + "," +
+                record.getTotalAmount() + "," +
+                record.getRecordType();
+    }
+
+    // The snapshot file is the commit point. Before it is moved into place the journal lines are
+    // appended to their archive segments; the snapshot records how long the segments and the
+    // journal were, so an interrupted rotation is finished (or rolled back) by recoverSnapshot on
+    // the next start. Rolling back needs the segment lengths from before the append, which the
+    // previous snapshot holds; the first rotation writes one with them (and nothing to trim, and no
+    // totals, which would already count the journal) before it touches the segments.
+    private void writeSnapshot(List<Vehicle> vehicles, List<Customer> customers, long customersBytes,
+            List<String> aggregates) throws IOException {
+        long journalBytes = fileSize(RECORD_FILE);
+        boolean hasRecords = journalBytes > journalDataStart();
+        if (hasRecords) {
+            if (!Files.exists(file(SNAPSHOT_FILE))) {
+                FleetSnapshot.capture(vehicles, customers, customersBytes, archive.sizes(), 0, null)
+                        .write(file(SNAPSHOT_FILE));
+            }
+            archive.append(journalLines());
+        }
+
+        FleetSnapshot snapshot = FleetSnapshot.capture(vehicles, customers, customersBytes, archive.sizes(),
+                journalBytes, aggregates);
+        snapshot.write(file(SNAPSHOT_FILE));
+
+        if (hasRecords) {
+            dropJournalPrefix(journalBytes);
+            snapshot.setJournalBytes(0);
+            snapshot.write(file(SNAPSHOT_FILE));
+        }
+    }
+
+    // Archived journal records as CSV lines, whatever format the journal itself is in.
+    private List<String> journalLines() throws IOException {
+        List<String> lines = new ArrayList<>();
+        switch (journalFormat) {
+            case BINARY:
+                BinaryJournal.read(file(RECORD_FILE), (plate, customerId, date, amount, type) ->
+                        lines.add(plate + "," + customerId + "," + date + "," + amount + "," + type));
+                return lines;
+            case FRAMED:
+                FramedJournal.read(file(RECORD_FILE), lines::add);
+                return lines;
+            default:
+                return Files.readAllLines(file(RECORD_FILE));
+        }
+    }
+
+    private long journalDataStart() {
+        switch (journalFormat) {
+            case BINARY:
+                return BinaryJournal.HEADER_SIZE;
+            case FRAMED:
+                return FramedJournal.HEADER_SIZE;
+            default:
+                return 0;
+        }
+    }
+
+    private byte[] encodeRecord(RentalRecord record) {
+        return journalFormat == JournalFormat.BINARY ? BinaryJournal.encode(record)
+                : FramedJournal.encode(recordLine(record));
+    }
+
+    private JournalFormat detectJournalFormat() throws IOException {
+        Path journal = file(RECORD_FILE);
+        if (BinaryJournal.isBinary(journal)) {
+            return JournalFormat.BINARY;
+        } else if (FramedJournal.isFramed(journal)) {
+            return JournalFormat.FRAMED;
+        }
+        return fileSize(RECORD_FILE) == 0 ? NEW_JOURNAL_FORMAT : JournalFormat.CSV;
+    }
+
+    // Cuts a write torn by a crash off the end of the journal, so the replay sees only whole
+    // records and new records are not appended to a fragment. The cut bytes are appended to
+    // rental_record.txt.torn, so a later crash doesn't overwrite what an earlier one saved, and the
+    // last good offset is reported. In a framed journal the first bad entry ends the journal, as
+    // entry boundaries after it cannot be trusted; a damaged record further back in a binary or
+    // CSV journal is left for the replay to skip.
+    private void recoverJournal() throws IOException {
+        Path journal = file(RECORD_FILE);
+        long size = fileSize(RECORD_FILE);
+        if (size == 0) {
+            return;
+        }
+        long valid;
+        switch (journalFormat) {
+            case BINARY:
+                valid = size < BinaryJournal.HEADER_SIZE ? 0 : BinaryJournal.validLength(journal);
+                break;
+            case FRAMED:
+                valid = size < FramedJournal.HEADER_SIZE ? 0 : FramedJournal.validLength(journal);
+                break;
+            default:
+                valid = csvValidLength(journal, size);
+        }
+        if (valid >= size) {
+            return;
+        }
+
+        Path torn = file(RECORD_FILE + TORN_SUFFIX);
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            try (FileChannel out = FileChannel.open(torn, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                long position = valid;
+                while (position < size) {
+                    position += channel.transferTo(position, size - position, out);
+                }
+                out.force(true);
+            }
+            channel.truncate(valid);
+            channel.force(true);
+        }
+        System.out.println("Recovered " + RECORD_FILE + ": last good record ends at offset " + valid + ", cut "
+                + (size - valid) + " torn bytes (appended to " + torn.getFileName() + ")");
+    }
+
+    // Rewrites a CSV journal, already cut back to whole lines by recoverJournal, as framed entries
+    // and swaps it in atomically, so it gets the checksummed torn-write protection from now on. If
+    // anything fails the journal stays CSV and is read as before.
+    private void convertCsvJournal() {
+        Path journal = file(RECORD_FILE);
+        Path tmp = file(RECORD_FILE + ".tmp");
+        try {
+            int converted = 0;
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                out.write(FramedJournal.header());
+                for (String line : Files.readAllLines(journal)) {
+                    if (!line.isEmpty()) {
+                        out.write(FramedJournal.encode(line));
+                        converted++;
+                    }
+                }
+            }
+            DurableFiles.replace(tmp, journal);
+            journalFormat = JournalFormat.FRAMED;
+            System.out.println("Converted " + RECORD_FILE + " to framed entries: " + converted + " records");
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Error converting " + RECORD_FILE + ", keeping CSV: " + e.getMessage());
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                // left for the next conversion to overwrite
+            }
+        }
+    }
+
+    // Length up to the last newline. An unterminated last line that still reads as a whole record
+    // (e.g. a hand-edited file) is kept and terminated instead.
+    private long csvValidLength(Path journal, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int tail = (int) Math.min(size, FramedJournal.MAX_PAYLOAD);
+            ByteBuffer buffer = ByteBuffer.allocate(tail);
+            while (buffer.hasRemaining() && channel.read(buffer, size - tail + buffer.position()) > 0) {
+                // keep reading
+            }
+            int lastNewline = tail - 1;
+            while (lastNewline >= 0 && buffer.get(lastNewline) != '\n') {
+                lastNewline--;
+            }
+            if (lastNewline == tail - 1) {
+                return size;
+            }
+            String last = new String(buffer.array(), lastNewline + 1, tail - lastNewline - 1, StandardCharsets.UTF_8);
+            if (isCompleteRecordLine(last)) {
+                channel.write(ByteBuffer.wrap(new byte[] { '\n' }), size);
+                return size + 1;
+            }
+            return size - tail + lastNewline + 1;
+        }
+    }
+
+    private static boolean isCompleteRecordLine(String line) {
+        String[] parts = splitFields(line, 5, false);
+        if (parts == null || !(parts[4].equals("RENT") || parts[4].equals("RETURN"))) {
+            return false;
+        }
+        try {
+            Integer.parseInt(parts[1]);
+            LocalDate.parse(parts[2]);
+            Double.parseDouble(parts[3]);
+            return true;
+        } catch (NumberFormatException | DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    // Removes the first bytes of the journal, keeping the binary or framed header if there is
+    // one.
+    private void dropJournalPrefix(long bytes) throws IOException {
+        Path journal = file(RECORD_FILE);
+        Path tmp = file(RECORD_FILE + ".tmp");
+        try (FileChannel in = FileChannel.open(journal, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = Math.max(bytes, journalDataStart());
+            if (journalDataStart() > 0) {
+                in.transferTo(0, journalDataStart(), out);
+            }
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+        DurableFiles.replace(tmp, journal);
+    }
+
+    private <T> void rewriteFile(String name, List<T> items, Function<T, String> format) throws IOException {
+        Path target = file(name);
+        Path tmp = file(name + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp)) {
+            for (T item : items) {
+                writer.write(format.apply(item));
+                writer.write("\n");
+            }
+        }
+        DurableFiles.replace(tmp, target);
+    }
+
+    private Path file(String name) {
+        return dataDir.resolve(name);
+    }
+
+    private long fileSize(String name) throws IOException {
+        Path path = file(name);
+        return Files.exists(path) ? Files.size(path) : 0;
+    }
+
+    // Applies the latest snapshot on top of the freshly loaded vehicles and finishes any journal
+    // rotation that was interrupted by a crash.
+    private FleetSnapshot recoverSnapshot(IntHashMap<Customer> customers) {
+        long start = System.nanoTime();
+        FleetSnapshot snapshot;
+        try {
+            snapshot = FleetSnapshot.read(file(SNAPSHOT_FILE));
+            if (snapshot == null) {
+                return null;
+            }
+
+            // Segment bytes past the snapshot belong to a rotation that never committed
+            archive.truncateTo(snapshot.getSegmentBytes());
+            // A committed rotation whose journal was not yet trimmed
+            if (snapshot.getJournalBytes() > 0) {
+                if (fileSize(RECORD_FILE) >= snapshot.getJournalBytes()) {
+                    dropJournalPrefix(snapshot.getJournalBytes());
+                }
+                snapshot.setJournalBytes(0);
+                snapshot.write(file(SNAPSHOT_FILE));
+            }
+        } catch (IOException e) {
+            System.out.println("Error loading snapshot: " + e.getMessage());
+            return null;
+        }
+
+        for (Customer c : snapshot.getCustomers()) {
+            if (catalog.registerCustomer(c)) {
+                customers.put(c.getCustomerId(), c);
+            }
+        }
+        for (Map.Entry<String, Vehicle.VehicleStatus> entry : snapshot.getStatuses().entrySet()) {
+            Vehicle vehicle = catalog.findVehicleByPlate(entry.getKey());
+            if (vehicle != null) {
+                vehicle.setStatus(entry.getValue());
+            }
+        }
+        if (snapshot.getAggregates() != null) {
+            catalog.restoreAggregates(snapshot.getAggregates());
+        }
+        RentalStorage.reportLoad(SNAPSHOT_FILE, snapshot.getStatuses().size() + snapshot.getCustomers().size(), 0, start);
+        return snapshot;
+    }
+
+    private List<Vehicle> loadVehicles() {
+        long start = System.nanoTime();
+        List<Vehicle> loaded = new ArrayList<>();
+        int skipped = 0;
+        try {
+            MappedCsvReader.Result<List<Vehicle>> result = MappedCsvReader.parse(file(VEHICLE_FILE), 6,
+                    ArrayList::new, (line, chunk) -> {
+                        Vehicle vehicle = parseVehicle(line);
+                        return vehicle != null && chunk.add(vehicle);
+                    });
+            skipped = result.getSkipped();
+            // Chunks come back in file order, so the first line wins for duplicate plates as before
+            for (List<Vehicle> chunk : result.getChunks()) {
+                for (Vehicle vehicle : chunk) {
+                    if (catalog.registerVehicle(vehicle)) {
+                        loaded.add(vehicle);
+                    } else {
+                        skipped++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error loading vehicles: " + e.getMessage());
+        }
+        RentalStorage.reportLoad(VEHICLE_FILE, loaded.size(), skipped, start);
+        return loaded;
+    }
+
+    private static Vehicle parseVehicle(MappedCsvReader.Line line) {
+        if (line.fieldCount() < 6) {
+            return null;
+        }
+        String make = line.string(2);
+        String model = line.string(3);
+        int year = line.parseInt(4);
+
+        Vehicle vehicle;
+        if (line.fieldEquals(0, "Car")) {
+            vehicle = new Car(make, model, year, line.parseInt(5));
+        } else if (line.fieldEquals(0, "Motorcycle")) {
+            vehicle = new Motorcycle(make, model, year, line.parseBoolean(5));
+        } else if (line.fieldEquals(0, "Truck")) {
+            vehicle = new Truck(make, model, year, line.parseDecimal(5));
+        } else {
+            return null;
+        }
+
+        vehicle.setLicensePlate(line.string(1));
+        return vehicle;
+    }
+
+    // Customers up to fromByte are already in the snapshot. If the offset no longer lands on a line
+    // boundary the file was rewritten underneath the snapshot, so it is read in full; the id index
+    // drops the duplicates.
+    private void loadCustomers(long fromByte, IntHashMap<Customer> customers) {
+        long start = System.nanoTime();
+        int parsed = 0;
+        int skipped = 0;
+        try (BufferedReader reader = openAt(file(CUSTOMER_FILE), fromByte)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = splitFields(line, 2, true);
+                if (parts == null) {
+                    skipped++;
+                    continue;
+                }
+
+                try {
+                    Customer customer = new Customer(Integer.parseInt(parts[0]), parts[1]);
+                    if (catalog.registerCustomer(customer)) {
+                        customers.put(customer.getCustomerId(), customer);
+                        parsed++;
+                    } else {
+                        skipped++;
+                    }
+                } catch (NumberFormatException e) {
+                    skipped++;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println(":Error loading customers: " + e.getMessage());
+        }
+        RentalStorage.reportLoad(CUSTOMER_FILE, parsed, skipped, start);
+    }
+
+    // Replays RESERVE/CANCEL lines; if anything was cancelled or has ended before today the file is
+    // rewritten with just the reservations still standing, so it only grows with the live bookings.
+    private void loadReservations() {
+        long start = System.nanoTime();
+        Map<String, String> standing = new LinkedHashMap<>();
+        LocalDate today = LocalDate.now();
+        int parsed = 0;
+        int dropped = 0;
+        int skipped = 0;
+        try {
+            if (Files.exists(file(RESERVATION_FILE))) {
+                for (String line : Files.readAllLines(file(RESERVATION_FILE))) {
+                    String[] parts = splitFields(line, 5, false);
+                    if (parts == null) {
+                        skipped++;
+                        continue;
+                    }
+                    String key = parts[1].toUpperCase() + "," + parts[3];
+                    if (parts[0].equals("RESERVE")) {
+                        standing.put(key, line);
+                    } else if (parts[0].equals("CANCEL") && standing.remove(key) != null) {
+                        dropped++;
+                    } else {
+                        skipped++;
+                    }
+                }
+            }
+            for (Iterator<String> it = standing.values().iterator(); it.hasNext(); ) {
+                String[] parts = splitFields(it.next(), 5, false);
+                try {
+                    Vehicle vehicle = catalog.findVehicleByPlate(parts[1]);
+                    Customer customer = catalog.findCustomerById(Integer.parseInt(parts[2]));
+                    LocalDate end = LocalDate.parse(parts[4]);
+                    if (end.isBefore(today)) {
+                        it.remove();
+                        dropped++;
+                        continue;
+                    }
+                    if (vehicle == null || customer == null) {
+                        skipped++;
+                        continue;
+                    }
+                    catalog.registerReservation(new Reservation(vehicle, customer, LocalDate.parse(parts[3]), end));
+                    parsed++;
+                } catch (NumberFormatException | DateTimeParseException e) {
+                    skipped++;
+                }
+            }
+            if (dropped > 0) {
+                rewriteFile(RESERVATION_FILE, new ArrayList<>(standing.values()), line -> line);
+            }
+        } catch (IOException e) {
+            System.out.println("Error loading reservations: " + e.getMessage());
+        }
+        RentalStorage.reportLoad(RESERVATION_FILE, parsed, skipped, start);
+    }
+
+    private void loadRentalRecords(List<Vehicle> vehicles, IntHashMap<Customer> customers) {
+        if (journalFormat == JournalFormat.BINARY) {
+            loadBinaryRentalRecords(customers);
+            return;
+        } else if (journalFormat == JournalFormat.FRAMED) {
+            loadFramedRentalRecords(vehicles, customers);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            IntHashMap<Vehicle> vehiclesByPlateKey = vehiclesByPlateKey(vehicles);
+
+            // Chunks resolve records in parallel against the read-only maps, the replay below
+            // applies them in file order
+            MappedCsvReader.Result<List<RentalRecord>> result = MappedCsvReader.parse(file(RECORD_FILE), 5,
+                    ArrayList::new, (line, chunk) -> {
+                        RentalRecord record = journalRecord(line, vehiclesByPlateKey, customers);
+                        return record != null && chunk.add(record);
+                    });
+            for (List<RentalRecord> chunk : result.getChunks()) {
+                for (RentalRecord record : chunk) {
+                    catalog.replayRecord(record);
+                }
+            }
+            RentalStorage.reportLoad(RECORD_FILE, result.getParsed(), result.getSkipped(), start);
+        } catch (IOException e){
+            System.out.println("Error loading rental records: " + e.getMessage());
+        }
+    }
+
+    // Plates are always 3 letters + 3 digits, so they can be looked up by an int key computed from
+    // the mapped bytes without building a String per line
+    private static IntHashMap<Vehicle> vehiclesByPlateKey(List<Vehicle> vehicles) {
+        IntHashMap<Vehicle> vehiclesByPlateKey = new IntHashMap<>(vehicles.size());
+        for (Vehicle vehicle : vehicles) {
+            vehiclesByPlateKey.put(plateKey(vehicle.getLicensePlate()), vehicle);
+        }
+        return vehiclesByPlateKey;
+    }
+
+    // Resolves one CSV or framed journal line; null if it is short or refers to an unknown vehicle
+    // or customer.
+    private static RentalRecord journalRecord(MappedCsvReader.Line line, IntHashMap<Vehicle> vehiclesByPlateKey,
+            IntHashMap<Customer> customers) {
+        if (line.fieldCount() < 5) {
+            return null;
+        }
+        int key = plateKey(line);
+        Vehicle vehicle = key < 0 ? null : vehiclesByPlateKey.get(key);
+        Customer customer = customers.get(line.parseInt(1));
+        if (vehicle == null || customer == null) {
+            return null;
+        }
+        return new RentalRecord(vehicle, customer, line.parseDate(2), line.parseDecimal(3), recordType(line));
+    }
+
+    private static String recordType(MappedCsvReader.Line line) {
+        if (line.fieldEquals(4, "RENT")) {
+            return "RENT";
+        } else if (line.fieldEquals(4, "RETURN")) {
+            return "RETURN";
+        }
+        return line.string(4);
+    }
+
+    // Packs a plate of the form AAA999 (either letter case) into an int; -1 for anything else.
+    static int plateKey(String plate) {
+        if (plate == null || plate.length() != 6) {
+            return -1;
+        }
+        int key = 0;
+        for (int i = 0; i < 6; i++) {
+            key = plateKeyStep(key, i, (byte) plate.charAt(i));
+            if (key < 0) {
+                return -1;
+            }
+        }
+        return key;
+    }
+
+    static int plateKey(MappedCsvReader.Line line) {
+        if (line.length(0) != 6) {
+            return -1;
+        }
+        int key = 0;
+        for (int i = 0; i < 6; i++) {
+            key = plateKeyStep(key, i, line.byteAt(0, i));
+            if (key < 0) {
+                return -1;
+            }
+        }
+        return key;
+    }
+
+    private static int plateKeyStep(int key, int index, byte b) {
+        if (index < 3) {
+            int letter = (b | 0x20) - 'a';
+            return letter < 0 || letter >= 26 ? -1 : key * 26 + letter;
+        }
+        int digit = b - '0';
+        return digit < 0 || digit > 9 ? -1 : key * 10 + digit;
+    }
+
+    private void loadBinaryRentalRecords(IntHashMap<Customer> customers) {
+        long start = System.nanoTime();
+        try {
+            BinaryJournal.ReadStats stats = BinaryJournal.read(file(RECORD_FILE),
+                    (plate, customerId, date, amount, type) -> {
+                        Vehicle vehicle = catalog.findVehicleByPlate(plate);
+                        Customer customer = customers.get(customerId);
+                        if (vehicle == null || customer == null) {
+                            return false;
+                        }
+                        catalog.replayRecord(new RentalRecord(vehicle, customer, date, amount, type));
+                        return true;
+                    });
+            RentalStorage.reportLoad(RECORD_FILE + " (binary)", stats.parsed, stats.skipped, start);
+        } catch (IOException e) {
+            System.out.println("Error loading rental records: " + e.getMessage());
+        }
+    }
+
+    // Entries are decoded in place in the mapped bytes like the CSV journal's lines, but on one
+    // thread: finding where an entry starts takes walking the length prefixes from the header, and
+    // the journal is cut back at every snapshot, so it stays well below the size at which
+    // MappedCsvReader splits a CSV journal into parallel chunks anyway.
+    private void loadFramedRentalRecords(List<Vehicle> vehicles, IntHashMap<Customer> customers) {
+        long start = System.nanoTime();
+        try {
+            IntHashMap<Vehicle> vehiclesByPlateKey = vehiclesByPlateKey(vehicles);
+            FramedJournal.ReadStats stats = FramedJournal.parse(file(RECORD_FILE), 5, catalog, (line, target) -> {
+                RentalRecord record = journalRecord(line, vehiclesByPlateKey, customers);
+                if (record == null) {
+                    return false;
+                }
+                target.replayRecord(record);
+                return true;
+            });
+            RentalStorage.reportLoad(RECORD_FILE + " (framed)", stats.parsed, stats.skipped, start);
+        } catch (IOException e) {
+            System.out.println("Error loading rental records: " + e.getMessage());
+        }
+    }
+
+    // Resolves one journal line against the catalog; null if it is malformed or refers to an
+    // unknown vehicle or customer.
+    private RentalRecord parseRecord(String line) {
+        String[] parts = splitFields(line, 5, false);
+        if (parts == null) {
+            return null;
+        }
+
+        try {
+            Vehicle vehicle = catalog.findVehicleByPlate(parts[0]);
+            Customer customer = catalog.findCustomerById(Integer.parseInt(parts[1]));
+            if (vehicle == null || customer == null) {
+                return null;
+            }
+
+            LocalDate date = LocalDate.parse(parts[2]);
+            double amount = Double.parseDouble(parts[3]);
+            return new RentalRecord(vehicle, customer, date, amount, parts[4]);
+        } catch (NumberFormatException | DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    // Splits a comma separated line into fieldCount fields without going through String.split.
+    // Extra trailing fields are ignored unless keepRest is set, in which case the last field runs
+    // to the end of the line. Returns null if the line has fewer fields.
+    private static String[] splitFields(String line, int fieldCount, boolean keepRest) {
+        String[] fields = new String[fieldCount];
+        int from = 0;
+        for (int i = 0; i < fieldCount - 1; i++) {
+            int comma = line.indexOf(',', from);
+            if (comma < 0) {
+                return null;
+            }
+            fields[i] = line.substring(from, comma);
+            from = comma + 1;
+        }
+        int end = keepRest ? -1 : line.indexOf(',', from);
+        fields[fieldCount - 1] = line.substring(from, end < 0 ? line.length() : end);
+        return fields;
+    }
+
+    private static BufferedReader openAt(Path file, long fromByte) throws IOException {
+        FileInputStream in = new FileInputStream(file.toFile());
+        try {
+            FileChannel channel = in.getChannel();
+            if (fromByte > 0 && fromByte <= channel.size()) {
+                ByteBuffer previous = ByteBuffer.allocate(1);
+                channel.read(previous, fromByte - 1);
+                if (previous.get(0) == '\n') {
+                    channel.position(fromByte);
+                }
+            }
+            return new BufferedReader(new InputStreamReader(in));
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    // Stops after limit bytes of the underlying stream
+    private static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(buffer, offset, (int) Math.min(length, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+}
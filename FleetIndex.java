@@ -0,0 +1,137 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// Attribute indexes over the fleet for FleetQuery. Every vehicle gets a position when added;
+// each index maps a value to the BitSet of positions that have it: hash maps for type, make and
+// model, sorted maps for year, seats, cargo capacity and horsepower. A query ANDs the BitSets of
+// its criteria, so it touches the matching index entries rather than every vehicle.
+// Not thread safe; RentalSystem guards it with its catalog lock.
+public class FleetIndex {
+    private final List<Vehicle> vehicles = new ArrayList<>();
+    private final Map<Class<?>, BitSet> byType = new HashMap<>();
+    private final Map<String, BitSet> byMake = new HashMap<>();
+    private final Map<String, BitSet> byModel = new HashMap<>();
+    private final TreeMap<Integer, BitSet> byYear = new TreeMap<>();
+    private final TreeMap<Integer, BitSet> bySeats = new TreeMap<>();
+    private final TreeMap<Double, BitSet> byCargo = new TreeMap<>();
+    private final TreeMap<Integer, BitSet> byHorsepower = new TreeMap<>();
+    private final Map<Boolean, BitSet> bySidecar = new HashMap<>();
+    private final Map<Boolean, BitSet> byTurbo = new HashMap<>();
+
+    public void add(Vehicle vehicle) {
+        int position = vehicles.size();
+        vehicles.add(vehicle);
+
+        for (Class<?> type = vehicle.getClass(); type != Vehicle.class && type != null; type = type.getSuperclass()) {
+            set(byType, type, position);
+        }
+        if (vehicle.getMake() != null) {
+            set(byMake, vehicle.getMake().toLowerCase(), position);
+        }
+        if (vehicle.getModel() != null) {
+            set(byModel, vehicle.getModel().toLowerCase(), position);
+        }
+        set(byYear, vehicle.getYear(), position);
+
+        if (vehicle instanceof Car) {
+            set(bySeats, ((Car) vehicle).getNumSeats(), position);
+        }
+        if (vehicle instanceof SportCar) {
+            set(byHorsepower, ((SportCar) vehicle).getHorsepower(), position);
+            set(byTurbo, ((SportCar) vehicle).hasTurbo(), position);
+        }
+        if (vehicle instanceof Truck) {
+            set(byCargo, ((Truck) vehicle).getCargoCapacity(), position);
+        }
+        if (vehicle instanceof Motorcycle) {
+            set(bySidecar, ((Motorcycle) vehicle).hasSidecar(), position);
+        }
+    }
+
+    public int size() {
+        return vehicles.size();
+    }
+
+    // Matching vehicles in the order they were added. The status is checked last, on the
+    // vehicles that passed every attribute index, since it changes on every rental.
+    public List<Vehicle> query(FleetQuery query) {
+        BitSet matches = null;
+        if (query.getType() != null) {
+            matches = and(matches, byType.get(query.getType()));
+        }
+        if (query.getMake() != null) {
+            matches = and(matches, byMake.get(query.getMake().toLowerCase()));
+        }
+        if (query.getModel() != null) {
+            matches = and(matches, byModel.get(query.getModel().toLowerCase()));
+        }
+        if (query.getSidecar() != null) {
+            matches = and(matches, bySidecar.get(query.getSidecar()));
+        }
+        if (query.getTurbo() != null) {
+            matches = and(matches, byTurbo.get(query.getTurbo()));
+        }
+        if (query.getMinYear() != null || query.getMaxYear() != null) {
+            matches = and(matches, range(byYear, query.getMinYear(), query.getMaxYear()));
+        }
+        if (query.getMinSeats() != null || query.getMaxSeats() != null) {
+            matches = and(matches, range(bySeats, query.getMinSeats(), query.getMaxSeats()));
+        }
+        if (query.getMinCargo() != null || query.getMaxCargo() != null) {
+            matches = and(matches, range(byCargo, query.getMinCargo(), query.getMaxCargo()));
+        }
+        if (query.getMinHorsepower() != null || query.getMaxHorsepower() != null) {
+            matches = and(matches, range(byHorsepower, query.getMinHorsepower(), query.getMaxHorsepower()));
+        }
+
+        List<Vehicle> result = new ArrayList<>();
+        if (matches == null) {
+            matches = new BitSet();
+            matches.set(0, vehicles.size());
+        }
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            Vehicle vehicle = vehicles.get(i);
+            if (query.getStatus() == null || vehicle.getStatus() == query.getStatus()) {
+                result.add(vehicle);
+            }
+        }
+        return result;
+    }
+
+    private static <K> void set(Map<K, BitSet> index, K key, int position) {
+        index.computeIfAbsent(key, k -> new BitSet()).set(position);
+    }
+
+    // The first criterion's BitSet is copied so the index itself is never modified.
+    private static BitSet and(BitSet matches, BitSet criterion) {
+        if (criterion == null) {
+            return new BitSet();
+        }
+        if (matches == null) {
+            return (BitSet) criterion.clone();
+        }
+        matches.and(criterion);
+        return matches;
+    }
+
+    private static <K extends Comparable<K>> BitSet range(TreeMap<K, BitSet> index, K min, K max) {
+        NavigableMap<K, BitSet> entries;
+        if (min != null && max != null) {
+            entries = min.compareTo(max) > 0 ? new TreeMap<>() : index.subMap(min, true, max, true);
+        } else if (min != null) {
+            entries = index.tailMap(min, true);
+        } else {
+            entries = index.headMap(max, true);
+        }
+        BitSet union = new BitSet();
+        for (BitSet positions : entries.values()) {
+            union.or(positions);
+        }
+        return union;
+    }
+}
@@ -0,0 +1,127 @@
+// Search criteria for RentalSystem.findVehicles. Every criterion left unset matches everything;
+// the set ones are combined with AND. Ranges are inclusive.
+//
+//   new FleetQuery().type(Truck.class).minCargo(5).minYear(2020).status(Vehicle.VehicleStatus.AVAILABLE)
+public class FleetQuery {
+    private Class<? extends Vehicle> type;
+    private String make;
+    private String model;
+    private Integer minYear;
+    private Integer maxYear;
+    private Integer minSeats;
+    private Integer maxSeats;
+    private Double minCargo;
+    private Double maxCargo;
+    private Integer minHorsepower;
+    private Integer maxHorsepower;
+    private Boolean sidecar;
+    private Boolean turbo;
+    private Vehicle.VehicleStatus status;
+
+    // Matches subclasses too, so Car includes SportCar
+    public FleetQuery type(Class<? extends Vehicle> type) {
+        this.type = type;
+        return this;
+    }
+
+    // Make and model match ignoring case
+    public FleetQuery make(String make) {
+        this.make = make;
+        return this;
+    }
+
+    public FleetQuery model(String model) {
+        this.model = model;
+        return this;
+    }
+
+    public FleetQuery minYear(int minYear) {
+        this.minYear = minYear;
+        return this;
+    }
+
+    public FleetQuery maxYear(int maxYear) {
+        this.maxYear = maxYear;
+        return this;
+    }
+
+    public FleetQuery minSeats(int minSeats) {
+        this.minSeats = minSeats;
+        return this;
+    }
+
+    public FleetQuery maxSeats(int maxSeats) {
+        this.maxSeats = maxSeats;
+        return this;
+    }
+
+    public FleetQuery minCargo(double minCargo) {
+        this.minCargo = minCargo;
+        return this;
+    }
+
+    public FleetQuery maxCargo(double maxCargo) {
+        this.maxCargo = maxCargo;
+        return this;
+    }
+
+    public FleetQuery minHorsepower(int minHorsepower) {
+        this.minHorsepower = minHorsepower;
+        return this;
+    }
+
+    public FleetQuery maxHorsepower(int maxHorsepower) {
+        this.maxHorsepower = maxHorsepower;
+        return this;
+    }
+
+    public FleetQuery sidecar(boolean sidecar) {
+        this.sidecar = sidecar;
+        return this;
+    }
+
+    public FleetQuery turbo(boolean turbo) {
+        this.turbo = turbo;
+        return this;
+    }
+
+    public FleetQuery status(Vehicle.VehicleStatus status) {
+        this.status = status;
+        return this;
+    }
+
+    public Class<? extends Vehicle> getType() { return type; }
+
+    public String getMake() { return make; }
+
+    public String getModel() { return model; }
+
+    public Integer getMinYear() { return minYear; }
+
+    public Integer getMaxYear() { return maxYear; }
+
+    public Integer getMinSeats() { return minSeats; }
+
+    public Integer getMaxSeats() { return maxSeats; }
+
+    public Double getMinCargo() { return minCargo; }
+
+    public Double getMaxCargo() { return maxCargo; }
+
+    public Integer getMinHorsepower() { return minHorsepower; }
+
+    public Integer getMaxHorsepower() { return maxHorsepower; }
+
+    public Boolean getSidecar() { return sidecar; }
+
+    public Boolean getTurbo() { return turbo; }
+
+    public Vehicle.VehicleStatus getStatus() { return status; }
+
+    // True if anything besides the status is set
+    public boolean hasAttributeFilters() {
+        return type != null || make != null || model != null || minYear != null || maxYear != null
+                || minSeats != null || maxSeats != null || minCargo != null || maxCargo != null
+                || minHorsepower != null || maxHorsepower != null || sidecar != null || turbo != null;
+    }
+}
@@ -0,0 +1,139 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Point-in-time copy of the fleet state: every vehicle's status plus the customer table.
+// The header and S lines also record how far into the other files the snapshot reaches:
+//   SNAPSHOT,<customers.txt bytes>,<journal bytes>
+//   S,<archive segment>,<bytes>
+// so startup only has to read what was appended after it. A lines hold the running totals over
+// the archive (RentalAggregates.toLines), so startup does not have to read the archive either.
+public class FleetSnapshot {
+    private Map<String, Vehicle.VehicleStatus> statuses = new LinkedHashMap<>();
+    private List<Customer> customers = new ArrayList<>();
+    private Map<String, Long> segmentBytes = new TreeMap<>();
+    private long customersBytes;
+    private long journalBytes;
+    // Null when the snapshot was written without them
+    private List<String> aggregates;
+
+    public static FleetSnapshot capture(List<Vehicle> vehicles, List<Customer> customers, long customersBytes,
+                                        Map<String, Long> segmentBytes, long journalBytes, List<String> aggregates) {
+        FleetSnapshot snapshot = new FleetSnapshot();
+        for (Vehicle v : vehicles) {
+            snapshot.statuses.put(v.getLicensePlate(), v.getStatus());
+        }
+        snapshot.customers.addAll(customers);
+        snapshot.customersBytes = customersBytes;
+        snapshot.segmentBytes.putAll(segmentBytes);
+        snapshot.journalBytes = journalBytes;
+        snapshot.aggregates = aggregates == null ? null : new ArrayList<>(aggregates);
+        return snapshot;
+    }
+
+    // Returns null when no snapshot has been written yet.
+    public static FleetSnapshot read(Path file) throws IOException {
+        FleetSnapshot snapshot = new FleetSnapshot();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null || !header.startsWith("SNAPSHOT,")) {
+                throw new IOException("Not a snapshot file: " + file);
+            }
+            String[] offsets = header.split(",");
+            snapshot.customersBytes = Long.parseLong(offsets[1]);
+            snapshot.journalBytes = Long.parseLong(offsets[2]);
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("V,")) {
+                    int comma = line.indexOf(',', 2);
+                    snapshot.statuses.put(line.substring(2, comma),
+                            Vehicle.VehicleStatus.valueOf(line.substring(comma + 1)));
+                } else if (line.startsWith("C,")) {
+                    int comma = line.indexOf(',', 2);
+                    snapshot.customers.add(new Customer(Integer.parseInt(line.substring(2, comma)),
+                            line.substring(comma + 1)));
+                } else if (line.startsWith("S,")) {
+                    int comma = line.lastIndexOf(',');
+                    snapshot.segmentBytes.put(line.substring(2, comma), Long.parseLong(line.substring(comma + 1)));
+                } else if (line.startsWith("A,")) {
+                    if (snapshot.aggregates == null) {
+                        snapshot.aggregates = new ArrayList<>();
+                    }
+                    snapshot.aggregates.add(line.substring(2));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt snapshot file " + file + ": " + e.getMessage(), e);
+        }
+        return snapshot;
+    }
+
+    // Written to a temp file, forced and moved into place, so a crash never leaves a half written
+    // snapshot and a snapshot that is in place is on disk.
+    public void write(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writer.write("SNAPSHOT," + customersBytes + "," + journalBytes);
+            writer.newLine();
+            for (Map.Entry<String, Long> entry : segmentBytes.entrySet()) {
+                writer.write("S," + entry.getKey() + "," + entry.getValue());
+                writer.newLine();
+            }
+            for (Map.Entry<String, Vehicle.VehicleStatus> entry : statuses.entrySet()) {
+                writer.write("V," + entry.getKey() + "," + entry.getValue());
+                writer.newLine();
+            }
+            for (Customer c : customers) {
+                writer.write("C," + c.getCustomerId() + "," + c.getCustomerName());
+                writer.newLine();
+            }
+            if (aggregates != null) {
+                for (String line : aggregates) {
+                    writer.write("A," + line);
+                    writer.newLine();
+                }
+            }
+        }
+        DurableFiles.replace(tmp, file);
+    }
+
+    public Map<String, Vehicle.VehicleStatus> getStatuses() {
+        return statuses;
+    }
+
+    public List<Customer> getCustomers() {
+        return customers;
+    }
+
+    public long getCustomersBytes() {
+        return customersBytes;
+    }
+
+    public Map<String, Long> getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    public List<String> getAggregates() {
+        return aggregates;
+    }
+
+    public long getJournalBytes() {
+        return journalBytes;
+    }
+
+    public void setJournalBytes(long journalBytes) {
+        this.journalBytes = journalBytes;
+    }
+}
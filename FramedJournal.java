@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.util.zip.CRC32;
+
+// Rental record journal of length-prefixed, checksummed entries, so a write torn by a crash is
+// recognised instead of being parsed as a short or garbled record.
+//
+// Header (8 bytes): magic "RJFR", version (short), reserved (short, 0)
+// Entry: payload length (int), CRC32 of the payload (int), payload: one journal line in the CSV
+//        format (plate,customerId,date,amount,type) as UTF-8, without the newline
+//
+// Entries are only appended, so the first entry that is cut short or fails its checksum marks the
+// end of what was written completely; validLength finds that offset for the startup recovery.
+public class FramedJournal {
+    public static final int HEADER_SIZE = 8;
+    public static final int FRAME_HEADER_SIZE = 8;
+    public static final short VERSION = 1;
+    // Far above any real journal line; a larger length field (or an empty entry, e.g. a run of
+    // zero bytes left by a crash) can only be garbage
+    public static final int MAX_PAYLOAD = 64 * 1024;
+
+    private static final byte[] MAGIC = { 'R', 'J', 'F', 'R' };
+
+    public interface LineSink {
+        // Returns false if the line could not be used (e.g. unknown plate or customer)
+        boolean accept(String line);
+    }
+
+    public static class ReadStats {
+        public int parsed;
+        public int skipped;
+        // Offset just past the last complete entry
+        public long validBytes;
+    }
+
+    // True if the file starts with the framed journal magic.
+    public static boolean isFramed(Path file) throws IOException {
+        if (!Files.exists(file) || Files.size(file) < MAGIC.length) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+            channel.read(magic, 0);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (magic.get(i) != MAGIC[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public static byte[] header() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        buffer.put(MAGIC).putShort(VERSION).putShort((short) 0);
+        return buffer.array();
+    }
+
+    public static byte[] encode(String line) {
+        byte[] payload = line.getBytes(StandardCharsets.UTF_8);
+        if (payload.length > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Journal entry too long: " + payload.length + " bytes");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(FRAME_HEADER_SIZE + payload.length);
+        buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        return buffer.array();
+    }
+
+    // Receives each complete entry as [start, start + length) of a mapped window
+    private interface EntryVisitor {
+        boolean visit(ByteBuffer window, int start, int length);
+    }
+
+    // Hands every complete entry to the sink, in file order, and stops at the first incomplete or
+    // corrupt one. Reads through memory mapped windows.
+    public static ReadStats read(Path file, LineSink sink) throws IOException {
+        byte[][] payload = { new byte[256] };
+        return scan(file, (window, start, length) -> {
+            if (payload[0].length < length) {
+                payload[0] = new byte[Math.max(length, payload[0].length * 2)];
+            }
+            window.get(start, payload[0], 0, length);
+            return sink.accept(new String(payload[0], 0, length, StandardCharsets.UTF_8));
+        });
+    }
+
+    // Like read, but each entry's fields (at most maxFields) are handed to the parser in place in
+    // the mapped bytes, the same way MappedCsvReader parses CSV lines, so no String is built per
+    // entry. An entry the parser rejects, or throws IllegalArgumentException or
+    // DateTimeException for, is counted as skipped.
+    public static <T> ReadStats parse(Path file, int maxFields, T result, MappedCsvReader.LineParser<T> parser)
+            throws IOException {
+        ByteBuffer[] mapped = { null };
+        MappedCsvReader.Line[] line = { null };
+        return scan(file, (window, start, length) -> {
+            if (mapped[0] != window) {
+                mapped[0] = window;
+                line[0] = new MappedCsvReader.Line(window, maxFields);
+            }
+            line[0].reset(start, start + length);
+            try {
+                return parser.parse(line[0], result);
+            } catch (IllegalArgumentException | DateTimeException e) {
+                return false;
+            }
+        });
+    }
+
+    // Offset just past the last complete entry; the file size if the whole journal is intact.
+    public static long validLength(Path file) throws IOException {
+        return scan(file, null).validBytes;
+    }
+
+    private static ReadStats scan(Path file, EntryVisitor visitor) throws IOException {
+        ReadStats stats = new ReadStats();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            checkHeader(channel, file);
+
+            long position = HEADER_SIZE;
+            stats.validBytes = HEADER_SIZE;
+            CRC32 crc = new CRC32();
+            // Windows of up to 64 MB, each starting on an entry boundary; an entry cut off by the
+            // end of a window is read again at the start of the next one
+            long windowSize = 64L << 20;
+            scanning:
+            while (position < size) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(windowSize, size - position));
+                int consumed = 0;
+                while (window.remaining() >= FRAME_HEADER_SIZE) {
+                    int length = window.getInt();
+                    int checksum = window.getInt();
+                    if (length <= 0 || length > MAX_PAYLOAD) {
+                        break scanning;
+                    }
+                    if (window.remaining() < length) {
+                        break;
+                    }
+                    // The checksum is taken straight from the mapped bytes
+                    int start = window.position();
+                    window.limit(start + length);
+                    crc.reset();
+                    crc.update(window);
+                    window.limit(window.capacity());
+                    if ((int) crc.getValue() != checksum) {
+                        break scanning;
+                    }
+                    consumed = window.position();
+                    stats.validBytes = position + consumed;
+                    if (visitor != null) {
+                        if (visitor.visit(window, start, length)) {
+                            stats.parsed++;
+                        } else {
+                            stats.skipped++;
+                        }
+                    }
+                }
+                // No complete entry in what is left of the file: a torn entry at the end
+                if (consumed == 0) {
+                    break;
+                }
+                position += consumed;
+            }
+        }
+        return stats;
+    }
+
+    private static void checkHeader(FileChannel channel, Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        for (byte b : MAGIC) {
+            if (!header.hasRemaining() || header.get() != b) {
+                throw new IOException("Not a framed rental journal: " + file);
+            }
+        }
+        short version = header.getShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported framed journal version " + version + " in " + file);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Month-end reports over a RentalHistory and the storage's archive: spend per customer, records
+// per plate and plates whose RENTs and RETURNs don't pair up. The live records in the period,
+// found through the history's date index, are split into ranges, and the archive into the parts
+// the storage reads independently (slices of the month segments for flat files); each range or
+// part is summarized as a fork/join task and the results are merged pairwise.
+// Amounts are summed as whole cents in longs, so merging is exact and the result is the same for
+// every split and pool size, identical to a sequential run; rankings break ties by key.
+public class HistoryAnalytics {
+    // Fewest records a task is split down to
+    static final int MIN_LEAF = 8192;
+
+    private HistoryAnalytics() {
+    }
+
+    // Records dated from..to inclusive (null bounds are open) among those in the history when
+    // called. With a null pool the work runs sequentially on the caller's thread. The tasks read
+    // a history snapshot, so they never wait for the history's lock or hold up writers.
+    public static Summary summarize(RentalHistory history, LocalDate from, LocalDate to, ForkJoinPool pool) {
+        RentalHistory.Snapshot snapshot = history.snapshot();
+        int[] positions = from == null && to == null ? null
+                : history.positionsBetween(from == null ? LocalDate.MIN : from, to == null ? LocalDate.MAX : to);
+        int size = positions == null ? snapshot.size() : positions.length;
+        if (pool == null) {
+            return new SummaryTask(snapshot, positions, 0, size, size).compute();
+        }
+        // About four tasks per worker: enough to even out uneven progress, few enough that merging
+        // the per-task maps stays cheap next to summarizing the records
+        int leaf = Math.max(MIN_LEAF, size / (pool.getParallelism() * 4));
+        return pool.invoke(new SummaryTask(snapshot, positions, 0, size, leaf));
+    }
+
+    // Archive parts from RentalStorage.splitArchivedRecords. With a null pool they are read one
+    // after the other on the caller's thread. A read error surfaces as UncheckedIOException.
+    public static Summary summarize(List<RentalStorage.ArchivePart> parts, ForkJoinPool pool) {
+        if (pool == null) {
+            return new ArchiveTask(parts, 0, parts.size()).compute();
+        }
+        return pool.invoke(new ArchiveTask(parts, 0, parts.size()));
+    }
+
+    // Summarizes parts[start..end), one part per leaf task
+    private static class ArchiveTask extends RecursiveTask<Summary> {
+        private static final long serialVersionUID = 1L;
+        private final List<RentalStorage.ArchivePart> parts;
+        private final int start;
+        private final int end;
+
+        ArchiveTask(List<RentalStorage.ArchivePart> parts, int start, int end) {
+            this.parts = parts;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Summary compute() {
+            if (end - start > 1) {
+                int middle = (start + end) >>> 1;
+                ArchiveTask left = new ArchiveTask(parts, start, middle);
+                left.fork();
+                Summary summary = new ArchiveTask(parts, middle, end).compute();
+                return left.join().merge(summary);
+            }
+            Summary summary = new Summary();
+            if (start < end) {
+                try {
+                    parts.get(start).forEach(summary::add);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return summary;
+        }
+    }
+
+    // Summarizes the records at positions[start..end), or at start..end when positions is null
+    private static class SummaryTask extends RecursiveTask<Summary> {
+        private static final long serialVersionUID = 1L;
+        private final RentalHistory.Snapshot snapshot;
+        private final int[] positions;
+        private final int start;
+        private final int end;
+        private final int leaf;
+
+        SummaryTask(RentalHistory.Snapshot snapshot, int[] positions, int start, int end, int leaf) {
+            this.snapshot = snapshot;
+            this.positions = positions;
+            this.start = start;
+            this.end = end;
+            this.leaf = leaf;
+        }
+
+        @Override
+        protected Summary compute() {
+            if (end - start > leaf) {
+                int middle = (start + end) >>> 1;
+                SummaryTask left = new SummaryTask(snapshot, positions, start, middle, leaf);
+                SummaryTask right = new SummaryTask(snapshot, positions, middle, end, leaf);
+                left.fork();
+                Summary summary = right.compute();
+                return left.join().merge(summary);
+            }
+            Summary summary = new Summary();
+            for (int i = start; i < end; i++) {
+                int position = positions == null ? i : positions[i];
+                // The date index may list records added after the snapshot was taken
+                if (position < snapshot.size()) {
+                    summary.add(snapshot.get(position));
+                }
+            }
+            return summary;
+        }
+    }
+
+    // Combinable accumulator: add records one at a time, merge summaries of disjoint record sets.
+    public static class Summary {
+        private long records;
+        private long rents;
+        private long returns;
+        private long totalCents;
+        private final IntHashMap<long[]> centsByCustomer = new IntHashMap<>();
+        // Plate -> { rents, returns, all records }
+        private final Map<String, long[]> countsByPlate = new HashMap<>();
+
+        public void add(RentalRecord record) {
+            long cents = Math.round(record.getTotalAmount() * 100);
+            records++;
+            totalCents += cents;
+            int customerId = record.getCustomer().getCustomerId();
+            long[] spend = centsByCustomer.get(customerId);
+            if (spend == null) {
+                spend = new long[1];
+                centsByCustomer.put(customerId, spend);
+            }
+            spend[0] += cents;
+
+            long[] counts = countsByPlate.computeIfAbsent(record.getVehicle().getLicensePlate().toUpperCase(),
+                    k -> new long[3]);
+            if (record.getRecordType().equals("RENT")) {
+                rents++;
+                counts[0]++;
+            } else if (record.getRecordType().equals("RETURN")) {
+                returns++;
+                counts[1]++;
+            }
+            counts[2]++;
+        }
+
+        // Adds other into this summary and returns this one.
+        public Summary merge(Summary other) {
+            records += other.records;
+            rents += other.rents;
+            returns += other.returns;
+            totalCents += other.totalCents;
+            for (int customerId : other.centsByCustomer.keys()) {
+                long[] spend = centsByCustomer.get(customerId);
+                if (spend == null) {
+                    centsByCustomer.put(customerId, other.centsByCustomer.get(customerId).clone());
+                } else {
+                    spend[0] += other.centsByCustomer.get(customerId)[0];
+                }
+            }
+            for (Map.Entry<String, long[]> entry : other.countsByPlate.entrySet()) {
+                long[] counts = countsByPlate.get(entry.getKey());
+                if (counts == null) {
+                    countsByPlate.put(entry.getKey(), entry.getValue().clone());
+                } else {
+                    for (int i = 0; i < counts.length; i++) {
+                        counts[i] += entry.getValue()[i];
+                    }
+                }
+            }
+            return this;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public long getRents() {
+            return rents;
+        }
+
+        public long getReturns() {
+            return returns;
+        }
+
+        public double getTotalRevenue() {
+            return totalCents / 100.0;
+        }
+
+        public double getSpend(int customerId) {
+            long[] spend = centsByCustomer.get(customerId);
+            return spend == null ? 0 : spend[0] / 100.0;
+        }
+
+        // Customer id -> spend for the n biggest spenders, biggest first
+        public Map<Integer, Double> getTopCustomers(int n) {
+            List<Integer> ids = new ArrayList<>();
+            for (int id : centsByCustomer.keys()) {
+                ids.add(id);
+            }
+            ids.sort((a, b) -> {
+                int bySpend = Long.compare(centsByCustomer.get(b)[0], centsByCustomer.get(a)[0]);
+                return bySpend != 0 ? bySpend : Integer.compare(a, b);
+            });
+            Map<Integer, Double> top = new LinkedHashMap<>();
+            for (int id : ids.subList(0, Math.min(Math.max(n, 0), ids.size()))) {
+                top.put(id, centsByCustomer.get(id)[0] / 100.0);
+            }
+            return top;
+        }
+
+        // Plate -> number of records for the n plates with the most records, busiest first
+        public Map<String, Long> getBusiestPlates(int n) {
+            List<String> plates = new ArrayList<>(countsByPlate.keySet());
+            Collections.sort(plates);
+            plates.sort((a, b) -> Long.compare(countsByPlate.get(b)[2], countsByPlate.get(a)[2]));
+            Map<String, Long> top = new LinkedHashMap<>();
+            for (String plate : plates.subList(0, Math.min(Math.max(n, 0), plates.size()))) {
+                top.put(plate, countsByPlate.get(plate)[2]);
+            }
+            return top;
+        }
+
+        // Plate -> RENTs minus RETURNs, for plates where they differ, by plate. Positive means the
+        // vehicle is still out at the end of the period (or a RETURN is missing).
+        public Map<String, Long> getImbalances() {
+            Map<String, Long> imbalances = new TreeMap<>();
+            for (Map.Entry<String, long[]> entry : countsByPlate.entrySet()) {
+                long difference = entry.getValue()[0] - entry.getValue()[1];
+                if (difference != 0) {
+                    imbalances.put(entry.getKey(), difference);
+                }
+            }
+            return imbalances;
+        }
+
+        @Override
+        public String toString() {
+            return "Records: " + records + " (" + rents + " rents, " + returns + " returns)"
+                    + " | Revenue: $" + getTotalRevenue();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+
+// Writes rental records one line each to a caller-supplied Writer, as CSV with a header row or as
+// JSON Lines. Nothing is kept per record, so an export of any length needs only the writer's
+// buffer. Amounts are written as stored; dates as yyyy-mm-dd.
+public class HistoryExporter {
+    public enum Format {
+        CSV,
+        JSONL;
+
+        // JSONL for .jsonl/.ndjson files, CSV otherwise
+        public static Format forFile(Path file) {
+            String name = file.getFileName().toString().toLowerCase();
+            return name.endsWith(".jsonl") || name.endsWith(".ndjson") ? JSONL : CSV;
+        }
+    }
+
+    private static final String CSV_HEADER = "type,plate,customer_id,customer_name,date,amount";
+
+    private final Writer out;
+    private final Format format;
+    private final StringBuilder line = new StringBuilder(128);
+    private long written;
+
+    public HistoryExporter(Writer out, Format format) throws IOException {
+        this.out = out;
+        this.format = format;
+        if (format == Format.CSV) {
+            out.write(CSV_HEADER);
+            out.write('\n');
+        }
+    }
+
+    public void write(RentalRecord record) throws IOException {
+        line.setLength(0);
+        if (format == Format.CSV) {
+            csv(record);
+        } else {
+            json(record);
+        }
+        line.append('\n');
+        out.append(line);
+        written++;
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    private void csv(RentalRecord record) {
+        csvField(record.getRecordType()).append(',');
+        csvField(record.getVehicle().getLicensePlate()).append(',');
+        line.append(record.getCustomer().getCustomerId()).append(',');
+        csvField(record.getCustomer().getCustomerName()).append(',');
+        line.append(record.getRecordDate()).append(',');
+        line.append(record.getTotalAmount());
+    }
+
+    private void json(RentalRecord record) {
+        line.append("{\"type\":");
+        jsonString(record.getRecordType());
+        line.append(",\"plate\":");
+        jsonString(record.getVehicle().getLicensePlate());
+        line.append(",\"customerId\":").append(record.getCustomer().getCustomerId());
+        line.append(",\"customerName\":");
+        jsonString(record.getCustomer().getCustomerName());
+        line.append(",\"date\":\"").append(record.getRecordDate()).append('"');
+        line.append(",\"amount\":").append(record.getTotalAmount()).append('}');
+    }
+
+    // Quoted (with quotes doubled) only when the value holds a comma, quote or line break
+    private StringBuilder csvField(String value) {
+        if (value == null) {
+            return line;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            return line.append(value);
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        return line.append('"');
+    }
+
+    private void jsonString(String value) {
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+            }
+        }
+        line.append('"');
+    }
+}
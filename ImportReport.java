@@ -0,0 +1,63 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// Outcome of a bulk import: how many rows went in and, for every row that did not, its line
+// number (1-based), the raw line and why it was rejected.
+public class ImportReport {
+    public static class Rejection {
+        private final int lineNumber;
+        private final String line;
+        private final String reason;
+
+        public Rejection(int lineNumber, String line, String reason) {
+            this.lineNumber = lineNumber;
+            this.line = line;
+            this.reason = reason;
+        }
+
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+        public String getLine() {
+            return line;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return "line " + lineNumber + ": " + reason + " | " + line;
+        }
+    }
+
+    private final List<Rejection> rejections = new ArrayList<>();
+    private int imported;
+
+    void reject(int lineNumber, String line, String reason) {
+        rejections.add(new Rejection(lineNumber, line, reason));
+    }
+
+    // Rejections are collected in two passes (parse, then duplicates); report them in file order.
+    void finish(int imported) {
+        this.imported = imported;
+        rejections.sort(Comparator.comparingInt(Rejection::getLineNumber));
+    }
+
+    public int getImported() {
+        return imported;
+    }
+
+    public List<Rejection> getRejections() {
+        return Collections.unmodifiableList(rejections);
+    }
+
+    @Override
+    public String toString() {
+        return "Imported " + imported + " rows, rejected " + rejections.size();
+    }
+}
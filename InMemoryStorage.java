@@ -0,0 +1,123 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Keeps everything in lists, for tests and benchmarks that should not touch the disk. A new
+// RentalSystem over the same instance sees what the previous one saved, like a restart would.
+public class InMemoryStorage implements RentalStorage {
+    private final List<Vehicle> vehicles = new ArrayList<>();
+    private final List<Customer> customers = new ArrayList<>();
+    private final Map<String, Vehicle.VehicleStatus> checkpointStatuses = new HashMap<>();
+    private final List<RentalRecord> liveRecords = new ArrayList<>();
+    private final List<RentalRecord> archivedRecords = new ArrayList<>();
+    private final List<Reservation> reservations = new ArrayList<>();
+    private List<String> checkpointAggregates;
+
+    @Override
+    public synchronized void load(RentalStorage.Catalog catalog) {
+        long start = System.nanoTime();
+        int skipped = 0;
+        for (Vehicle vehicle : vehicles) {
+            if (!catalog.registerVehicle(vehicle)) {
+                skipped++;
+            }
+            Vehicle.VehicleStatus status = checkpointStatuses.get(vehicle.getLicensePlate());
+            vehicle.setStatus(status == null ? Vehicle.VehicleStatus.AVAILABLE : status);
+        }
+        for (Customer customer : customers) {
+            if (!catalog.registerCustomer(customer)) {
+                skipped++;
+            }
+        }
+        if (checkpointAggregates != null) {
+            catalog.restoreAggregates(checkpointAggregates);
+        }
+        for (RentalRecord record : liveRecords) {
+            catalog.replayRecord(record);
+        }
+        LocalDate today = LocalDate.now();
+        reservations.removeIf(reservation -> reservation.getEndDate().isBefore(today));
+        for (Reservation reservation : reservations) {
+            catalog.registerReservation(reservation);
+        }
+        RentalStorage.reportLoad("memory", vehicles.size() + customers.size() + liveRecords.size() - skipped,
+                skipped, start);
+    }
+
+    @Override
+    public synchronized void saveVehicle(Vehicle vehicle) {
+        vehicles.add(vehicle);
+    }
+
+    @Override
+    public synchronized void saveCustomer(Customer customer) {
+        customers.add(customer);
+    }
+
+    @Override
+    public synchronized void saveVehicles(List<Vehicle> vehicles) {
+        this.vehicles.addAll(vehicles);
+    }
+
+    @Override
+    public synchronized void saveCustomers(List<Customer> customers) {
+        this.customers.addAll(customers);
+    }
+
+    @Override
+    public synchronized void saveRentalRecord(RentalRecord record) {
+        liveRecords.add(record);
+    }
+
+    @Override
+    public synchronized void saveRentalRecords(List<RentalRecord> records) {
+        liveRecords.addAll(records);
+    }
+
+    @Override
+    public synchronized void saveReservation(Reservation reservation) {
+        reservations.add(reservation);
+    }
+
+    @Override
+    public synchronized void deleteReservation(Reservation reservation) {
+        reservations.remove(reservation);
+    }
+
+    @Override
+    public synchronized void checkpoint(List<Vehicle> vehicles, List<Customer> customers, List<String> aggregates) {
+        checkpointAggregates = new ArrayList<>(aggregates);
+        for (Vehicle vehicle : vehicles) {
+            checkpointStatuses.put(vehicle.getLicensePlate(), vehicle.getStatus());
+        }
+        archivedRecords.addAll(liveRecords);
+        liveRecords.clear();
+    }
+
+    @Override
+    public synchronized void compact(List<Vehicle> vehicles, List<Customer> customers, List<String> aggregates) {
+        this.vehicles.clear();
+        this.vehicles.addAll(vehicles);
+        this.customers.clear();
+        this.customers.addAll(customers);
+        checkpoint(vehicles, customers, aggregates);
+    }
+
+    @Override
+    public synchronized List<RentalRecord> archivedRecords(LocalDate from, LocalDate to) {
+        List<RentalRecord> result = new ArrayList<>();
+        for (RentalRecord record : archivedRecords) {
+            if ((from == null || !record.getRecordDate().isBefore(from))
+                    && (to == null || !record.getRecordDate().isAfter(to))) {
+                result.add(record);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+    }
+}
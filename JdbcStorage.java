@@ -0,0 +1,602 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Stores everything in an embedded database through plain JDBC, e.g.
+//   -Drental.storage=jdbc -Drental.jdbcUrl=jdbc:h2:./rental          (H2 file mode)
+//   -Drental.storage=jdbc -Drental.jdbcUrl=jdbc:sqlite:rental.db     (SQLite)
+// with the driver jar on the classpath. The SQL sticks to what both accept.
+//
+// Rental records get an increasing seq; the archived_seq meta row marks the last checkpointed
+// record, like the snapshot marks the end of the flat file journal, and rental_aggregates holds
+// the running totals up to that mark (RentalAggregates.toLines, one row per line). Inserts are sent as JDBC
+// batches and committed every batchRecords records (and on checkpoint and close), so a crash can
+// lose at most one uncommitted batch. Any other write first commits that batch on its own, so a
+// failed write rolls back only itself. Archive queries use the index on record_day.
+public class JdbcStorage implements RentalStorage {
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS vehicles (plate VARCHAR(6) PRIMARY KEY, vehicle_type VARCHAR(16) NOT NULL, "
+                    + "make VARCHAR(64), model VARCHAR(64), model_year INT NOT NULL, attribute VARCHAR(32), "
+                    + "status VARCHAR(16) NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS customers (id INT PRIMARY KEY, name VARCHAR(255))",
+            "CREATE TABLE IF NOT EXISTS rental_records (seq BIGINT PRIMARY KEY, plate VARCHAR(6) NOT NULL, "
+                    + "customer_id INT NOT NULL, record_day INT NOT NULL, amount DOUBLE NOT NULL, "
+                    + "record_type VARCHAR(16) NOT NULL)",
+            "CREATE INDEX IF NOT EXISTS rental_records_day ON rental_records (record_day)",
+            "CREATE INDEX IF NOT EXISTS rental_records_customer ON rental_records (customer_id)",
+            "CREATE INDEX IF NOT EXISTS rental_records_plate ON rental_records (plate)",
+            "CREATE TABLE IF NOT EXISTS rental_meta (meta_key VARCHAR(32) PRIMARY KEY, meta_value BIGINT NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS reservations (plate VARCHAR(6) NOT NULL, start_day INT NOT NULL, "
+                    + "end_day INT NOT NULL, customer_id INT NOT NULL, PRIMARY KEY (plate, start_day))",
+            "CREATE TABLE IF NOT EXISTS rental_aggregates (line_no INT PRIMARY KEY, line VARCHAR(255) NOT NULL)"
+    };
+    private static final String ARCHIVED_SEQ = "archived_seq";
+
+    private final String url;
+    private final int batchRecords;
+    private RentalStorage.Catalog catalog;
+    private Connection connection;
+    private PreparedStatement insertRecord;
+    private int pendingRecords;
+    private long nextSeq = 1;
+    private long archivedSeq;
+
+    public JdbcStorage(String url, int batchRecords) {
+        this.url = url;
+        this.batchRecords = Math.max(1, batchRecords);
+    }
+
+    @Override
+    public synchronized void load(RentalStorage.Catalog catalog) throws IOException {
+        this.catalog = catalog;
+        try {
+            connection = DriverManager.getConnection(url);
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                for (String ddl : SCHEMA) {
+                    statement.execute(ddl);
+                }
+            }
+            connection.commit();
+
+            Map<String, Vehicle> vehicles = loadVehicles();
+            IntHashMap<Customer> customers = loadCustomers();
+            archivedSeq = readMeta(ARCHIVED_SEQ);
+            loadAggregates();
+            loadRentalRecords(vehicles, customers);
+            loadReservations(vehicles, customers);
+            insertRecord = connection.prepareStatement("INSERT INTO rental_records "
+                    + "(seq, plate, customer_id, record_day, amount, record_type) VALUES (?, ?, ?, ?, ?, ?)");
+        } catch (SQLException e) {
+            // Half open is not open: later saves fail with "not open" instead of on a null statement
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException ignored) {
+                }
+                connection = null;
+            }
+            throw new IOException("Error opening " + url + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void saveVehicle(Vehicle vehicle) throws IOException {
+        saveVehicles(Collections.singletonList(vehicle));
+    }
+
+    @Override
+    public void saveCustomer(Customer customer) throws IOException {
+        saveCustomers(Collections.singletonList(customer));
+    }
+
+    @Override
+    public synchronized void saveVehicles(List<Vehicle> vehicles) throws IOException {
+        commit();
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO vehicles "
+                + "(plate, vehicle_type, make, model, model_year, attribute, status) VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+            for (Vehicle vehicle : vehicles) {
+                insert.setString(1, vehicle.getLicensePlate());
+                insert.setString(2, vehicle.getClass().getSimpleName());
+                insert.setString(3, vehicle.getMake());
+                insert.setString(4, vehicle.getModel());
+                insert.setInt(5, vehicle.getYear());
+                insert.setString(6, attribute(vehicle));
+                insert.setString(7, vehicle.getStatus().name());
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            rollback();
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized void saveCustomers(List<Customer> customers) throws IOException {
+        commit();
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO customers (id, name) VALUES (?, ?)")) {
+            for (Customer customer : customers) {
+                insert.setInt(1, customer.getCustomerId());
+                insert.setString(2, customer.getCustomerName());
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            rollback();
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized void saveRentalRecord(RentalRecord record) throws IOException {
+        checkOpen();
+        try {
+            addRecord(record);
+        } catch (SQLException e) {
+            throw new IOException(discardPending() + " rental records not stored: " + e.getMessage(), e);
+        }
+        if (pendingRecords >= batchRecords) {
+            commit();
+        }
+    }
+
+    // Committed straight away so the batch goes in as one transaction.
+    @Override
+    public synchronized void saveRentalRecords(List<RentalRecord> records) throws IOException {
+        commit();
+        try {
+            for (RentalRecord record : records) {
+                addRecord(record);
+            }
+        } catch (SQLException e) {
+            throw new IOException(discardPending() + " rental records not stored: " + e.getMessage(), e);
+        }
+        commit();
+    }
+
+    // A commit is as far as JDBC goes, so WRITTEN and FSYNCED both commit the pending batch.
+    @Override
+    public synchronized void sync(RentalStorage.Ack level) throws IOException {
+        if (level == RentalStorage.Ack.MEMORY || connection == null) {
+            return;
+        }
+        commit();
+    }
+
+    @Override
+    public synchronized void saveReservation(Reservation reservation) throws IOException {
+        commit();
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO reservations "
+                + "(plate, start_day, end_day, customer_id) VALUES (?, ?, ?, ?)")) {
+            insert.setString(1, reservation.getVehicle().getLicensePlate());
+            insert.setInt(2, (int) reservation.getStartDate().toEpochDay());
+            insert.setInt(3, (int) reservation.getEndDate().toEpochDay());
+            insert.setInt(4, reservation.getCustomer().getCustomerId());
+            insert.executeUpdate();
+            connection.commit();
+        } catch (SQLException e) {
+            rollback();
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public synchronized void deleteReservation(Reservation reservation) throws IOException {
+        commit();
+        try (PreparedStatement delete = connection.prepareStatement(
+                "DELETE FROM reservations WHERE plate = ? AND start_day = ?")) {
+            delete.setString(1, reservation.getVehicle().getLicensePlate());
+            delete.setInt(2, (int) reservation.getStartDate().toEpochDay());
+            delete.executeUpdate();
+            connection.commit();
+        } catch (SQLException e) {
+            rollback();
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    // Stores every status and the totals and moves the archived_seq mark past the last record, in
+    // one transaction.
+    @Override
+    public synchronized void checkpoint(List<Vehicle> vehicles, List<Customer> customers, List<String> aggregates)
+            throws IOException {
+        commit();
+        try {
+            try (PreparedStatement update = connection.prepareStatement("UPDATE vehicles SET status = ? WHERE plate = ?")) {
+                int batched = 0;
+                for (Vehicle vehicle : vehicles) {
+                    update.setString(1, vehicle.getStatus().name());
+                    update.setString(2, vehicle.getLicensePlate());
+                    update.addBatch();
+                    if (++batched % batchRecords == 0) {
+                        update.executeBatch();
+                    }
+                }
+                update.executeBatch();
+            }
+            writeAggregates(aggregates);
+            writeMeta(ARCHIVED_SEQ, nextSeq - 1);
+            connection.commit();
+            archivedSeq = nextSeq - 1;
+        } catch (SQLException e) {
+            rollback();
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    // The tables are keyed by plate and id, so there are no duplicates to drop.
+    @Override
+    public void compact(List<Vehicle> vehicles, List<Customer> customers, List<String> aggregates)
+            throws IOException {
+        checkpoint(vehicles, customers, aggregates);
+    }
+
+    @Override
+    public List<RentalRecord> archivedRecords(LocalDate from, LocalDate to) throws IOException {
+        try (Stream<RentalRecord> records = streamArchivedRecords(from, to)) {
+            return records.collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Pages of batchRecords rows keyed on seq, each its own short query, so no cursor or lock is
+    // held between pages and rows archived after the call (past the current mark) are not read.
+    @Override
+    public synchronized Stream<RentalRecord> streamArchivedRecords(LocalDate from, LocalDate to) {
+        long lastSeq = archivedSeq;
+        long[] after = { 0 };
+        return PagedStream.of(() -> {
+            try {
+                return archivedPage(after, lastSeq, from, to);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // The next records after after[0], which is moved past the rows read. Empty only at the end.
+    private synchronized List<RentalRecord> archivedPage(long[] after, long lastSeq, LocalDate from, LocalDate to)
+            throws IOException {
+        checkOpen();
+        List<RentalRecord> records = new ArrayList<>();
+        try (PreparedStatement query = connection.prepareStatement("SELECT seq, plate, customer_id, record_day, amount, "
+                + "record_type FROM rental_records WHERE seq > ? AND seq <= ? AND record_day BETWEEN ? AND ? ORDER BY seq")) {
+            query.setInt(3, from == null ? Integer.MIN_VALUE : (int) from.toEpochDay());
+            query.setInt(4, to == null ? Integer.MAX_VALUE : (int) to.toEpochDay());
+            query.setMaxRows(batchRecords);
+            query.setFetchSize(batchRecords);
+            boolean more = true;
+            while (records.isEmpty() && more) {
+                query.setLong(1, after[0]);
+                query.setLong(2, lastSeq);
+                more = false;
+                try (ResultSet rows = query.executeQuery()) {
+                    while (rows.next()) {
+                        more = true;
+                        after[0] = rows.getLong(1);
+                        Vehicle vehicle = catalog.findVehicleByPlate(rows.getString(2));
+                        Customer customer = catalog.findCustomerById(rows.getInt(3));
+                        if (vehicle != null && customer != null) {
+                            records.add(new RentalRecord(vehicle, customer, LocalDate.ofEpochDay(rows.getInt(4)),
+                                    rows.getDouble(5), rows.getString(6)));
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        return records;
+    }
+
+    // Both through their column's index, up to the archive mark like the other archive reads.
+    @Override
+    public synchronized List<RentalRecord> archivedRecordsByCustomer(int customerId) throws IOException {
+        return archivedRecordsWhere("customer_id = ?", customerId);
+    }
+
+    @Override
+    public synchronized List<RentalRecord> archivedRecordsByVehicle(String licensePlate) throws IOException {
+        // Plates are stored as the catalog spells them
+        Vehicle vehicle = catalog == null ? null : catalog.findVehicleByPlate(licensePlate);
+        return vehicle == null ? new ArrayList<>() : archivedRecordsWhere("plate = ?", vehicle.getLicensePlate());
+    }
+
+    private List<RentalRecord> archivedRecordsWhere(String condition, Object value) throws IOException {
+        checkOpen();
+        List<RentalRecord> records = new ArrayList<>();
+        try (PreparedStatement query = connection.prepareStatement("SELECT plate, customer_id, record_day, amount, "
+                + "record_type FROM rental_records WHERE " + condition + " AND seq <= ? ORDER BY seq")) {
+            query.setObject(1, value);
+            query.setLong(2, archivedSeq);
+            query.setFetchSize(batchRecords);
+            try (ResultSet rows = query.executeQuery()) {
+                while (rows.next()) {
+                    Vehicle vehicle = catalog.findVehicleByPlate(rows.getString(1));
+                    Customer customer = catalog.findCustomerById(rows.getInt(2));
+                    if (vehicle != null && customer != null) {
+                        records.add(new RentalRecord(vehicle, customer, LocalDate.ofEpochDay(rows.getInt(3)),
+                                rows.getDouble(4), rows.getString(5)));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        return records;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (connection == null) {
+            return;
+        }
+        try {
+            commit();
+        } finally {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                System.out.println("Error closing " + url + ": " + e.getMessage());
+            }
+            connection = null;
+        }
+    }
+
+    private Map<String, Vehicle> loadVehicles() throws SQLException {
+        long start = System.nanoTime();
+        Map<String, Vehicle> vehicles = new HashMap<>();
+        int skipped = 0;
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT vehicle_type, plate, make, model, model_year, attribute, "
+                     + "status FROM vehicles")) {
+            while (rows.next()) {
+                Vehicle vehicle;
+                try {
+                    vehicle = newVehicle(rows.getString(1), rows.getString(3), rows.getString(4), rows.getInt(5),
+                            rows.getString(6));
+                    vehicle.setLicensePlate(rows.getString(2));
+                    vehicle.setStatus(Vehicle.VehicleStatus.valueOf(rows.getString(7)));
+                } catch (IllegalArgumentException e) {
+                    vehicle = null;
+                }
+                if (vehicle != null && catalog.registerVehicle(vehicle)) {
+                    vehicles.put(vehicle.getLicensePlate(), vehicle);
+                } else {
+                    skipped++;
+                }
+            }
+        }
+        RentalStorage.reportLoad("vehicles", vehicles.size(), skipped, start);
+        return vehicles;
+    }
+
+    private IntHashMap<Customer> loadCustomers() throws SQLException {
+        long start = System.nanoTime();
+        IntHashMap<Customer> customers = new IntHashMap<>();
+        int skipped = 0;
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT id, name FROM customers")) {
+            while (rows.next()) {
+                Customer customer = new Customer(rows.getInt(1), rows.getString(2));
+                if (catalog.registerCustomer(customer)) {
+                    customers.put(customer.getCustomerId(), customer);
+                } else {
+                    skipped++;
+                }
+            }
+        }
+        RentalStorage.reportLoad("customers", customers.size(), skipped, start);
+        return customers;
+    }
+
+    // Replays the records written since the last checkpoint, in the order they were written.
+    private void loadRentalRecords(Map<String, Vehicle> vehicles, IntHashMap<Customer> customers) throws SQLException {
+        long start = System.nanoTime();
+        int parsed = 0;
+        int skipped = 0;
+        try (PreparedStatement query = connection.prepareStatement("SELECT seq, plate, customer_id, record_day, "
+                + "amount, record_type FROM rental_records WHERE seq > ? ORDER BY seq")) {
+            query.setLong(1, archivedSeq);
+            query.setFetchSize(batchRecords);
+            try (ResultSet rows = query.executeQuery()) {
+                while (rows.next()) {
+                    Vehicle vehicle = vehicles.get(rows.getString(2));
+                    Customer customer = customers.get(rows.getInt(3));
+                    if (vehicle == null || customer == null) {
+                        skipped++;
+                    } else {
+                        catalog.replayRecord(new RentalRecord(vehicle, customer,
+                                LocalDate.ofEpochDay(rows.getInt(4)), rows.getDouble(5), rows.getString(6)));
+                        parsed++;
+                    }
+                }
+            }
+        }
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT MAX(seq) FROM rental_records")) {
+            nextSeq = rows.next() ? rows.getLong(1) + 1 : 1;
+        }
+        RentalStorage.reportLoad("rental_records", parsed, skipped, start);
+    }
+
+    private void loadAggregates() throws SQLException {
+        List<String> lines = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT line FROM rental_aggregates ORDER BY line_no")) {
+            while (rows.next()) {
+                lines.add(rows.getString(1));
+            }
+        }
+        if (!lines.isEmpty()) {
+            catalog.restoreAggregates(lines);
+        }
+    }
+
+    private void writeAggregates(List<String> lines) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM rental_aggregates");
+        }
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO rental_aggregates (line_no, line) VALUES (?, ?)")) {
+            for (int i = 0; i < lines.size(); i++) {
+                insert.setInt(1, i);
+                insert.setString(2, lines.get(i));
+                insert.addBatch();
+                if ((i + 1) % batchRecords == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+    }
+
+    // Reservations that ended before today are deleted first, so the table only holds live bookings
+    private void loadReservations(Map<String, Vehicle> vehicles, IntHashMap<Customer> customers) throws SQLException {
+        long start = System.nanoTime();
+        int parsed = 0;
+        int skipped = 0;
+        try (PreparedStatement delete = connection.prepareStatement("DELETE FROM reservations WHERE end_day < ?")) {
+            delete.setInt(1, (int) LocalDate.now().toEpochDay());
+            delete.executeUpdate();
+            connection.commit();
+        }
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT plate, start_day, end_day, customer_id FROM reservations")) {
+            while (rows.next()) {
+                Vehicle vehicle = vehicles.get(rows.getString(1));
+                Customer customer = customers.get(rows.getInt(4));
+                if (vehicle == null || customer == null) {
+                    skipped++;
+                } else {
+                    catalog.registerReservation(new Reservation(vehicle, customer,
+                            LocalDate.ofEpochDay(rows.getInt(2)), LocalDate.ofEpochDay(rows.getInt(3))));
+                    parsed++;
+                }
+            }
+        }
+        RentalStorage.reportLoad("reservations", parsed, skipped, start);
+    }
+
+    private static Vehicle newVehicle(String type, String make, String model, int year, String attribute) {
+        switch (type) {
+            case "Car":
+                return new Car(make, model, year, Integer.parseInt(attribute));
+            case "Motorcycle":
+                return new Motorcycle(make, model, year, Boolean.parseBoolean(attribute));
+            case "Truck":
+                return new Truck(make, model, year, Double.parseDouble(attribute));
+            default:
+                throw new IllegalArgumentException("Unknown vehicle type: " + type);
+        }
+    }
+
+    private static String attribute(Vehicle vehicle) {
+        if (vehicle instanceof Car) {
+            return String.valueOf(((Car) vehicle).getNumSeats());
+        } else if (vehicle instanceof Motorcycle) {
+            return String.valueOf(((Motorcycle) vehicle).hasSidecar());
+        } else if (vehicle instanceof Truck) {
+            return String.valueOf(((Truck) vehicle).getCargoCapacity());
+        }
+        return null;
+    }
+
+    private long readMeta(String key) throws SQLException {
+        try (PreparedStatement query = connection.prepareStatement("SELECT meta_value FROM rental_meta WHERE meta_key = ?")) {
+            query.setString(1, key);
+            try (ResultSet rows = query.executeQuery()) {
+                return rows.next() ? rows.getLong(1) : 0;
+            }
+        }
+    }
+
+    private void writeMeta(String key, long value) throws SQLException {
+        try (PreparedStatement update = connection.prepareStatement("UPDATE rental_meta SET meta_value = ? WHERE meta_key = ?")) {
+            update.setLong(1, value);
+            update.setString(2, key);
+            if (update.executeUpdate() > 0) {
+                return;
+            }
+        }
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO rental_meta (meta_key, meta_value) VALUES (?, ?)")) {
+            insert.setString(1, key);
+            insert.setLong(2, value);
+            insert.executeUpdate();
+        }
+    }
+
+    // A failed load leaves no connection; saves report that rather than failing on a null.
+    private void checkOpen() throws IOException {
+        if (connection == null) {
+            throw new IOException("Storage " + url + " is not open");
+        }
+    }
+
+    private void addRecord(RentalRecord record) throws SQLException {
+        insertRecord.setLong(1, nextSeq);
+        insertRecord.setString(2, record.getVehicle().getLicensePlate());
+        insertRecord.setInt(3, record.getCustomer().getCustomerId());
+        insertRecord.setInt(4, (int) record.getRecordDate().toEpochDay());
+        insertRecord.setDouble(5, record.getTotalAmount());
+        insertRecord.setString(6, record.getRecordType());
+        insertRecord.addBatch();
+        nextSeq++;
+        pendingRecords++;
+    }
+
+    // Sends the pending record batch and commits it, as a transaction of its own. If that fails the
+    // batch is dropped, and the error says how many records were lost.
+    private void commit() throws IOException {
+        checkOpen();
+        if (pendingRecords == 0) {
+            return;
+        }
+        try {
+            insertRecord.executeBatch();
+            connection.commit();
+            pendingRecords = 0;
+        } catch (SQLException e) {
+            throw new IOException(discardPending() + " rental records not stored: " + e.getMessage(), e);
+        }
+    }
+
+    // Rolls back the pending records and hands their seqs out again. Returns how many there were.
+    private int discardPending() {
+        int lost = pendingRecords;
+        try {
+            insertRecord.clearBatch();
+        } catch (SQLException e) {
+            System.out.println("Error clearing record batch: " + e.getMessage());
+        }
+        rollback();
+        nextSeq -= lost;
+        pendingRecords = 0;
+        return lost;
+    }
+
+    private void rollback() {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            System.out.println("Error rolling back: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,375 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+// Reads a comma separated file through memory mapped chunks. Fields are scanned straight from the
+// mapped bytes and ints, decimals and dates are parsed without building Strings. Chunks are cut
+// at line boundaries and parsed in parallel; results come back in file order.
+public class MappedCsvReader {
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+    private static final int MAX_CHUNK_SIZE = Integer.MAX_VALUE - 8;
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    public interface LineParser<T> {
+        // Adds the line to the chunk result; returns false if the line was skipped
+        boolean parse(Line line, T chunkResult);
+    }
+
+    public static class Result<T> {
+        private final List<T> chunks;
+        private final int parsed;
+        private final int skipped;
+
+        Result(List<T> chunks, int parsed, int skipped) {
+            this.chunks = chunks;
+            this.parsed = parsed;
+            this.skipped = skipped;
+        }
+
+        // One result per chunk, in file order
+        public List<T> getChunks() {
+            return chunks;
+        }
+
+        public int getParsed() {
+            return parsed;
+        }
+
+        public int getSkipped() {
+            return skipped;
+        }
+    }
+
+    public static <T> Result<T> parse(Path file, int maxFields, Supplier<T> newChunkResult, LineParser<T> parser)
+            throws IOException {
+        return parse(file, maxFields, newChunkResult, parser, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static <T> Result<T> parse(Path file, int maxFields, Supplier<T> newChunkResult, LineParser<T> parser,
+                                      int parallelism) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<long[]> ranges = chunkRanges(channel, channel.size(),
+                    Math.max(MIN_CHUNK_SIZE, channel.size() / Math.max(1, parallelism) + 1));
+            List<ChunkTask<T>> tasks = new ArrayList<>();
+            for (long[] range : ranges) {
+                MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, range[0], range[1] - range[0]);
+                tasks.add(new ChunkTask<>(bytes, maxFields, newChunkResult.get(), parser));
+            }
+
+            (tasks.size() > 1 ? tasks.parallelStream() : tasks.stream()).forEach(ChunkTask::run);
+
+            int parsed = 0;
+            int skipped = 0;
+            for (ChunkTask<T> task : tasks) {
+                parsed += task.parsed;
+                skipped += task.skipped;
+            }
+            return new Result<>(tasks.stream().map(t -> t.result).collect(Collectors.toList()), parsed, skipped);
+        }
+    }
+
+    // Splits the first size bytes of the file into [start, end) ranges of about targetBytes (at
+    // least MIN_CHUNK_SIZE) that each end just after a newline, for parseRange.
+    public static List<long[]> lineRanges(Path file, long size, long targetBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return chunkRanges(channel, Math.min(size, channel.size()), Math.max(MIN_CHUNK_SIZE, targetBytes));
+        }
+    }
+
+    // Parses the lines in [start, end) of the file on the calling thread; start must be the start
+    // of a line, as with the ranges from lineRanges.
+    public static <T> Result<T> parseRange(Path file, long start, long end, int maxFields, T result,
+                                           LineParser<T> parser) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ChunkTask<T> task = new ChunkTask<>(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start),
+                    maxFields, result, parser);
+            task.run();
+            return new Result<>(List.of(result), task.parsed, task.skipped);
+        }
+    }
+
+    // Parses the lines starting at offsets[0..count), which must be line starts in ascending order
+    // within the first size bytes of the file, on the calling thread.
+    public static <T> Result<T> parseLinesAt(Path file, long size, IntList offsets, int count, int maxFields,
+                                             T result, LineParser<T> parser) throws IOException {
+        if (count == 0) {
+            return new Result<>(List.of(result), 0, 0);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long base = offsets.get(0);
+            ChunkTask<T> task = new ChunkTask<>(channel.map(FileChannel.MapMode.READ_ONLY, base,
+                    Math.min(size, channel.size()) - base), maxFields, result, parser);
+            for (int i = 0; i < count; i++) {
+                task.parseLineAt((int) (offsets.get(i) - base));
+            }
+            return new Result<>(List.of(result), task.parsed, task.skipped);
+        }
+    }
+
+    // Splits the first size bytes into [start, end) ranges of about target bytes that each end
+    // just after a newline.
+    private static List<long[]> chunkRanges(FileChannel channel, long size, long target) throws IOException {
+        target = Math.min(target, MAX_CHUNK_SIZE / 2);
+
+        List<long[]> ranges = new ArrayList<>();
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(size, start + target);
+            if (end < size) {
+                end = nextLineStart(channel, end, size);
+            }
+            ranges.add(new long[] { start, end });
+            start = end;
+        }
+        return ranges;
+    }
+
+    private static long nextLineStart(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long position = from;
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static class ChunkTask<T> {
+        private final MappedByteBuffer bytes;
+        private final Line line;
+        private final T result;
+        private final LineParser<T> parser;
+        private int parsed;
+        private int skipped;
+
+        ChunkTask(MappedByteBuffer bytes, int maxFields, T result, LineParser<T> parser) {
+            this.bytes = bytes;
+            this.line = new Line(bytes, maxFields);
+            this.result = result;
+            this.parser = parser;
+        }
+
+        void run() {
+            int start = 0;
+            while (start < bytes.limit()) {
+                start = parseLineAt(start);
+            }
+        }
+
+        // Parses the line starting at start; returns where the next one starts
+        int parseLineAt(int start) {
+            int limit = bytes.limit();
+            int end = start;
+            while (end < limit && bytes.get(end) != '\n') {
+                end++;
+            }
+            int contentEnd = end > start && bytes.get(end - 1) == '\r' ? end - 1 : end;
+            if (contentEnd > start) {
+                line.reset(start, contentEnd);
+                boolean ok;
+                try {
+                    ok = parser.parse(line, result);
+                } catch (IllegalArgumentException | DateTimeException e) {
+                    ok = false;
+                }
+                if (ok) {
+                    parsed++;
+                } else {
+                    skipped++;
+                }
+            }
+            return end + 1;
+        }
+    }
+
+    // View of one line inside a mapped chunk. Field indexes past fieldCount() are missing; extra
+    // fields beyond maxFields are ignored.
+    public static class Line {
+        private final ByteBuffer bytes;
+        private final int[] starts;
+        private final int[] ends;
+        private int fieldCount;
+        private byte[] scratch = new byte[64];
+
+        Line(ByteBuffer bytes, int maxFields) {
+            this.bytes = bytes;
+            this.starts = new int[maxFields];
+            this.ends = new int[maxFields];
+        }
+
+        void reset(int start, int end) {
+            fieldCount = 0;
+            int fieldStart = start;
+            for (int i = start; i < end && fieldCount < starts.length - 1; i++) {
+                if (bytes.get(i) == ',') {
+                    starts[fieldCount] = fieldStart;
+                    ends[fieldCount++] = i;
+                    fieldStart = i + 1;
+                }
+            }
+            int fieldEnd = end;
+            for (int i = fieldStart; i < end; i++) {
+                if (bytes.get(i) == ',') {
+                    fieldEnd = i;
+                    break;
+                }
+            }
+            starts[fieldCount] = fieldStart;
+            ends[fieldCount++] = fieldEnd;
+        }
+
+        // Where the line starts in the mapped range
+        public int start() {
+            return starts[0];
+        }
+
+        public int fieldCount() {
+            return fieldCount;
+        }
+
+        public int length(int field) {
+            return ends[field] - starts[field];
+        }
+
+        public byte byteAt(int field, int index) {
+            return bytes.get(starts[field] + index);
+        }
+
+        public boolean fieldEquals(int field, String ascii) {
+            if (length(field) != ascii.length()) {
+                return false;
+            }
+            for (int i = 0; i < ascii.length(); i++) {
+                if (byteAt(field, i) != ascii.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public String string(int field) {
+            int length = length(field);
+            if (scratch.length < length) {
+                scratch = new byte[length];
+            }
+            for (int i = 0; i < length; i++) {
+                scratch[i] = byteAt(field, i);
+            }
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        public int parseInt(int field) {
+            int length = length(field);
+            int i = 0;
+            boolean negative = false;
+            if (length > 0 && (byteAt(field, 0) == '-' || byteAt(field, 0) == '+')) {
+                negative = byteAt(field, 0) == '-';
+                i++;
+            }
+            if (i == length || length - i > 10) {
+                throw new NumberFormatException("Not an int: " + string(field));
+            }
+            long value = 0;
+            for (; i < length; i++) {
+                int digit = byteAt(field, i) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new NumberFormatException("Not an int: " + string(field));
+                }
+                value = value * 10 + digit;
+            }
+            value = negative ? -value : value;
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                throw new NumberFormatException("Int out of range: " + string(field));
+            }
+            return (int) value;
+        }
+
+        // Plain decimals like 100.0 are parsed in place and give exactly what Double.parseDouble
+        // would; anything else (exponents, very long mantissas) falls back to it.
+        public double parseDecimal(int field) {
+            int length = length(field);
+            int i = 0;
+            boolean negative = false;
+            if (length > 0 && (byteAt(field, 0) == '-' || byteAt(field, 0) == '+')) {
+                negative = byteAt(field, 0) == '-';
+                i++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int scale = -1;
+            for (; i < length; i++) {
+                byte b = byteAt(field, i);
+                if (b == '.' && scale < 0) {
+                    scale = 0;
+                } else if (b >= '0' && b <= '9' && digits < 16) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    digits++;
+                    if (scale >= 0) {
+                        scale++;
+                    }
+                } else {
+                    return Double.parseDouble(string(field));
+                }
+            }
+            if (digits == 0 || scale >= POWERS_OF_TEN.length || mantissa >= (1L << 53)) {
+                return Double.parseDouble(string(field));
+            }
+            double value = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+            return negative ? -value : value;
+        }
+
+        // ISO yyyy-MM-dd; other forms go through LocalDate.parse.
+        public LocalDate parseDate(int field) {
+            if (length(field) != 10 || byteAt(field, 4) != '-' || byteAt(field, 7) != '-') {
+                return LocalDate.parse(string(field));
+            }
+            return LocalDate.of(digits(field, 0, 4), digits(field, 5, 2), digits(field, 8, 2));
+        }
+
+        public boolean parseBoolean(int field) {
+            if (length(field) != 4) {
+                return false;
+            }
+            return (byteAt(field, 0) | 0x20) == 't' && (byteAt(field, 1) | 0x20) == 'r'
+                    && (byteAt(field, 2) | 0x20) == 'u' && (byteAt(field, 3) | 0x20) == 'e';
+        }
+
+        private int digits(int field, int offset, int count) {
+            int value = 0;
+            for (int i = offset; i < offset + count; i++) {
+                int digit = byteAt(field, i) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new NumberFormatException("Not a date: " + string(field));
+                }
+                value = value * 10 + digit;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// A lazy stream fed one page at a time: nextPage is called whenever the previous page has been
+// consumed, and an empty page ends the stream. Only the current page is held, so walking a source
+// of any length takes memory for one page, and each fetch can take its own lock or query.
+public class PagedStream {
+    private PagedStream() {
+    }
+
+    public static <T> Stream<T> of(Supplier<List<T>> nextPage) {
+        Iterator<T> iterator = new Iterator<T>() {
+            private Iterator<T> page = Collections.emptyIterator();
+            private boolean done;
+
+            @Override
+            public boolean hasNext() {
+                while (!page.hasNext() && !done) {
+                    List<T> next = nextPage.get();
+                    if (next.isEmpty()) {
+                        done = true;
+                    } else {
+                        page = next.iterator();
+                    }
+                }
+                return page.hasNext();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+}
@@ -0,0 +1,118 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Archived rental records, partitioned by month into rental_record-YYYY-MM.txt files. Lines whose
+// date cannot be read go to rental_record-undated.txt so nothing is lost during rotation.
+public class RecordSegments {
+    private static final String PREFIX = "rental_record-";
+    private static final String SUFFIX = ".txt";
+    private static final String UNDATED = PREFIX + "undated" + SUFFIX;
+
+    private final Path dir;
+
+    public RecordSegments(Path dir) {
+        this.dir = dir;
+    }
+
+    // Segment name for a journal line, based on its third (date) field.
+    public static String segmentFor(String line) {
+        int first = line.indexOf(',');
+        int second = first < 0 ? -1 : line.indexOf(',', first + 1);
+        if (second < 0 || line.length() < second + 8) {
+            return UNDATED;
+        }
+        try {
+            return segmentFor(YearMonth.parse(line.substring(second + 1, second + 8)));
+        } catch (DateTimeParseException e) {
+            return UNDATED;
+        }
+    }
+
+    public static String segmentFor(YearMonth month) {
+        return PREFIX + month + SUFFIX;
+    }
+
+    // All segment files, oldest month first.
+    public List<Path> list() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    // Segments whose month overlaps [from, to]; the undated segment is always included.
+    public List<Path> overlapping(LocalDate from, LocalDate to) throws IOException {
+        String first = segmentFor(YearMonth.from(from));
+        String last = segmentFor(YearMonth.from(to));
+        List<Path> result = new ArrayList<>();
+        for (Path path : list()) {
+            String name = path.getFileName().toString();
+            if (name.equals(UNDATED) || (name.compareTo(first) >= 0 && name.compareTo(last) <= 0)) {
+                result.add(path);
+            }
+        }
+        return result;
+    }
+
+    public Map<String, Long> sizes() throws IOException {
+        Map<String, Long> sizes = new TreeMap<>();
+        for (Path path : list()) {
+            sizes.put(path.getFileName().toString(), Files.size(path));
+        }
+        return sizes;
+    }
+
+    // Appends each journal line to the segment for its month. The segments (and the directory, for
+    // new ones) are forced before returning, as the caller drops the lines from the journal next.
+    public void append(List<String> lines) throws IOException {
+        Map<String, List<String>> bySegment = new TreeMap<>();
+        for (String line : lines) {
+            bySegment.computeIfAbsent(segmentFor(line), k -> new ArrayList<>()).add(line);
+        }
+        for (Map.Entry<String, List<String>> entry : bySegment.entrySet()) {
+            try (BufferedWriter writer = Files.newBufferedWriter(dir.resolve(entry.getKey()), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (String line : entry.getValue()) {
+                    writer.write(line);
+                    writer.write("\n");
+                }
+            }
+            DurableFiles.force(dir.resolve(entry.getKey()));
+        }
+        if (!bySegment.isEmpty()) {
+            DurableFiles.forceDirectory(dir);
+        }
+    }
+
+    // Cuts every segment back to its committed length; segments not listed are removed.
+    public void truncateTo(Map<String, Long> committed) throws IOException {
+        for (Path path : list()) {
+            Long length = committed.get(path.getFileName().toString());
+            if (length == null) {
+                Files.delete(path);
+            } else if (Files.size(path) > length) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(length);
+                }
+            }
+        }
+    }
+}
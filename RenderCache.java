@@ -0,0 +1,92 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+// Bounded LRU cache of rendered display strings. Each entry remembers the version it was rendered
+// for (e.g. the vehicle's status) and is re-rendered when asked for with a different one, so a
+// status change never leaves a stale row behind. The text has to belong to the version passed in:
+// a caller whose version can change while it renders must hold that change off meanwhile, or a
+// row could be stored under a version it does not show.
+//
+// Split into segments with a lock each so kiosk threads refreshing at once do not all queue on
+// one lock; each segment evicts its least recently used entry beyond its share of the capacity.
+// Keys are compared with equals, which for vehicles and records is identity.
+public class RenderCache<K> {
+    private static final int SEGMENTS = 16;
+
+    private static final class Entry {
+        final Object version;
+        final String text;
+
+        Entry(Object version, String text) {
+            this.version = version;
+            this.text = text;
+        }
+    }
+
+    private final Map<K, Entry>[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public RenderCache(int capacity) {
+        int perSegment = Math.max(1, capacity / SEGMENTS);
+        segments = (Map<K, Entry>[]) new Map<?, ?>[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new LinkedHashMap<K, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, Entry> eldest) {
+                    return size() > perSegment;
+                }
+            };
+        }
+    }
+
+    public String get(K key, Object version, Function<? super K, String> render) {
+        Map<K, Entry> segment = segmentFor(key);
+        synchronized (segment) {
+            Entry entry = segment.get(key);
+            if (entry != null && (entry.version == null ? version == null : entry.version.equals(version))) {
+                hits.increment();
+                return entry.text;
+            }
+        }
+        misses.increment();
+        String text = render.apply(key);
+        synchronized (segment) {
+            segment.put(key, new Entry(version, text));
+        }
+        return text;
+    }
+
+    public void invalidate(K key) {
+        Map<K, Entry> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Map<K, Entry> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private Map<K, Entry> segmentFor(K key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+}
@@ -0,0 +1,238 @@
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+// Running revenue and utilization totals, updated as each record is added so reports cost
+// O(1) per key (or O(keys) for a whole table) instead of a pass over the history.
+//
+// Revenue is the sum of record amounts (rent price plus return fees) by plate, customer id and
+// record date. A rental runs from its RENT to the next RETURN of the same vehicle and counts
+// the days between them, at least one; a vehicle still out counts up to the asOf date asked
+// about. Utilization is rented days over the days since the first record in the history.
+//
+// Records must be added in journal order per vehicle, which RentalSystem guarantees by adding
+// them under the vehicle's plate stripe.
+//
+// toLines and restore carry the totals across a restart: a checkpoint stores them next to the
+// archive they cover, so startup restores them and adds only the live records.
+public class RentalAggregates {
+    private final Map<String, DoubleAdder> revenueByPlate = new ConcurrentHashMap<>();
+    private final Map<Integer, DoubleAdder> revenueByCustomer = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<LocalDate, DoubleAdder> revenueByDay = new ConcurrentSkipListMap<>();
+    private final DoubleAdder totalRevenue = new DoubleAdder();
+
+    private final Map<String, LongAdder> rentedDays = new ConcurrentHashMap<>();
+    // Plate -> date of the RENT not yet matched by a RETURN
+    private final Map<String, LocalDate> openRentals = new ConcurrentHashMap<>();
+    private volatile LocalDate firstDay;
+
+    public void addRecord(RentalRecord record) {
+        String plate = record.getVehicle().getLicensePlate().toUpperCase();
+        LocalDate day = record.getRecordDate();
+        double amount = record.getTotalAmount();
+
+        revenueByPlate.computeIfAbsent(plate, k -> new DoubleAdder()).add(amount);
+        revenueByCustomer.computeIfAbsent(record.getCustomer().getCustomerId(), k -> new DoubleAdder()).add(amount);
+        revenueByDay.computeIfAbsent(day, k -> new DoubleAdder()).add(amount);
+        totalRevenue.add(amount);
+        noteDay(day);
+
+        if (record.getRecordType().equals("RENT")) {
+            openRentals.put(plate, day);
+        } else if (record.getRecordType().equals("RETURN")) {
+            LocalDate rentedOn = openRentals.remove(plate);
+            if (rentedOn != null) {
+                rentedDays.computeIfAbsent(plate, k -> new LongAdder()).add(daysBetween(rentedOn, day));
+            }
+        }
+    }
+
+    public double getTotalRevenue() {
+        return totalRevenue.sum();
+    }
+
+    public double getRevenueByVehicle(String plate) {
+        DoubleAdder sum = revenueByPlate.get(plate.toUpperCase());
+        return sum == null ? 0 : sum.sum();
+    }
+
+    public double getRevenueByCustomer(int customerId) {
+        DoubleAdder sum = revenueByCustomer.get(customerId);
+        return sum == null ? 0 : sum.sum();
+    }
+
+    public double getRevenueOn(LocalDate day) {
+        DoubleAdder sum = revenueByDay.get(day);
+        return sum == null ? 0 : sum.sum();
+    }
+
+    // O(days in range)
+    public double getRevenueBetween(LocalDate from, LocalDate to) {
+        double total = 0;
+        for (DoubleAdder sum : revenueByDay.subMap(from, true, to, true).values()) {
+            total += sum.sum();
+        }
+        return total;
+    }
+
+    public Map<String, Double> getRevenueByVehicle() {
+        return snapshot(revenueByPlate);
+    }
+
+    public Map<Integer, Double> getRevenueByCustomer() {
+        return snapshot(revenueByCustomer);
+    }
+
+    // In date order
+    public Map<LocalDate, Double> getRevenueByDay() {
+        return new TreeMap<>(snapshot(revenueByDay));
+    }
+
+    // Days the vehicle has been out, including a rental still open on asOf.
+    public long getRentedDays(String plate, LocalDate asOf) {
+        String key = plate.toUpperCase();
+        LongAdder closed = rentedDays.get(key);
+        long days = closed == null ? 0 : closed.sum();
+        LocalDate rentedOn = openRentals.get(key);
+        if (rentedOn != null && !asOf.isBefore(rentedOn)) {
+            days += daysBetween(rentedOn, asOf);
+        }
+        return days;
+    }
+
+    // Fraction of the days from the first record up to asOf the vehicle was out, 0..1.
+    public double getUtilization(String plate, LocalDate asOf) {
+        long period = periodDays(asOf);
+        return period == 0 ? 0 : Math.min(1.0, (double) getRentedDays(plate, asOf) / period);
+    }
+
+    // Every vehicle with any rental in the history
+    public Map<String, Double> getUtilization(LocalDate asOf) {
+        Map<String, Double> result = new HashMap<>();
+        for (String plate : rentedDays.keySet()) {
+            result.put(plate, getUtilization(plate, asOf));
+        }
+        for (String plate : openRentals.keySet()) {
+            result.put(plate, getUtilization(plate, asOf));
+        }
+        return result;
+    }
+
+    // The totals as text lines: T,total,firstDay then P,plate,amount C,customerId,amount
+    // D,date,amount R,plate,days O,plate,rentedOn. Double.toString reads back exactly.
+    public List<String> toLines() {
+        List<String> lines = new ArrayList<>();
+        lines.add("T," + totalRevenue.sum() + "," + (firstDay == null ? "" : firstDay));
+        for (Map.Entry<String, DoubleAdder> entry : revenueByPlate.entrySet()) {
+            lines.add("P," + entry.getKey() + "," + entry.getValue().sum());
+        }
+        for (Map.Entry<Integer, DoubleAdder> entry : revenueByCustomer.entrySet()) {
+            lines.add("C," + entry.getKey() + "," + entry.getValue().sum());
+        }
+        for (Map.Entry<LocalDate, DoubleAdder> entry : revenueByDay.entrySet()) {
+            lines.add("D," + entry.getKey() + "," + entry.getValue().sum());
+        }
+        for (Map.Entry<String, LongAdder> entry : rentedDays.entrySet()) {
+            lines.add("R," + entry.getKey() + "," + entry.getValue().sum());
+        }
+        for (Map.Entry<String, LocalDate> entry : openRentals.entrySet()) {
+            lines.add("O," + entry.getKey() + "," + entry.getValue());
+        }
+        return lines;
+    }
+
+    // Adds totals written by toLines to this one, normally still empty. Every line is parsed
+    // before anything is added, so a malformed line (IllegalArgumentException) changes nothing.
+    public void restore(List<String> lines) {
+        double total = 0;
+        LocalDate first = null;
+        Map<String, Double> byPlate = new HashMap<>();
+        Map<Integer, Double> byCustomer = new HashMap<>();
+        Map<LocalDate, Double> byDay = new HashMap<>();
+        Map<String, Long> days = new HashMap<>();
+        Map<String, LocalDate> open = new HashMap<>();
+        for (String line : lines) {
+            String[] fields = line.split(",", -1);
+            try {
+                if (fields.length != 3) {
+                    throw new IllegalArgumentException("expected 3 fields");
+                }
+                switch (fields[0]) {
+                    case "T":
+                        total = Double.parseDouble(fields[1]);
+                        first = fields[2].isEmpty() ? null : LocalDate.parse(fields[2]);
+                        break;
+                    case "P":
+                        byPlate.put(fields[1], Double.parseDouble(fields[2]));
+                        break;
+                    case "C":
+                        byCustomer.put(Integer.parseInt(fields[1]), Double.parseDouble(fields[2]));
+                        break;
+                    case "D":
+                        byDay.put(LocalDate.parse(fields[1]), Double.parseDouble(fields[2]));
+                        break;
+                    case "R":
+                        days.put(fields[1], Long.parseLong(fields[2]));
+                        break;
+                    case "O":
+                        open.put(fields[1], LocalDate.parse(fields[2]));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown kind " + fields[0]);
+                }
+            } catch (IllegalArgumentException | DateTimeException e) {
+                throw new IllegalArgumentException("Bad aggregate line " + line + ": " + e.getMessage(), e);
+            }
+        }
+
+        totalRevenue.add(total);
+        if (first != null) {
+            noteDay(first);
+        }
+        byPlate.forEach((plate, sum) -> revenueByPlate.computeIfAbsent(plate, k -> new DoubleAdder()).add(sum));
+        byCustomer.forEach((id, sum) -> revenueByCustomer.computeIfAbsent(id, k -> new DoubleAdder()).add(sum));
+        byDay.forEach((day, sum) -> revenueByDay.computeIfAbsent(day, k -> new DoubleAdder()).add(sum));
+        days.forEach((plate, sum) -> rentedDays.computeIfAbsent(plate, k -> new LongAdder()).add(sum));
+        openRentals.putAll(open);
+    }
+
+    private long periodDays(LocalDate asOf) {
+        LocalDate first = firstDay;
+        if (first == null || asOf.isBefore(first)) {
+            return 0;
+        }
+        return ChronoUnit.DAYS.between(first, asOf) + 1;
+    }
+
+    private void noteDay(LocalDate day) {
+        LocalDate first = firstDay;
+        if (first == null || day.isBefore(first)) {
+            synchronized (this) {
+                if (firstDay == null || day.isBefore(firstDay)) {
+                    firstDay = day;
+                }
+            }
+        }
+    }
+
+    private static long daysBetween(LocalDate from, LocalDate to) {
+        return Math.max(1, ChronoUnit.DAYS.between(from, to));
+    }
+
+    private static <K> Map<K, Double> snapshot(Map<K, DoubleAdder> sums) {
+        Map<K, Double> result = new HashMap<>();
+        for (Map.Entry<K, DoubleAdder> entry : sums.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        return result;
+    }
+}
@@ -1,34 +1,299 @@
+import java.time.LocalDate;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Stream;
 
 public class RentalHistory {
-    private List<RentalRecord> rentalRecords = new ArrayList<>();
+    // Records fetched per lock acquisition by the streams
+    private static final int PAGE_SIZE = 256;
 
-    public void addRecord(RentalRecord record) {
-        rentalRecords.add(record);
+    private RentalRecord[] rentalRecords = new RentalRecord[16];
+    private int count;
+
+    // Record positions, kept in insertion order per customer id and per plate
+    private IntHashMap<IntList> positionsByCustomer = new IntHashMap<>();
+    private Map<String, IntList> positionsByPlate = new HashMap<>();
+    private TreeMap<LocalDate, IntList> positionsByDate = new TreeMap<>();
+    // Lower-cased words of each customer's name -> ids of the customers carrying that word
+    private TreeMap<String, IntList> customerIdsByNameToken = new TreeMap<>();
+
+    public synchronized void addRecord(RentalRecord record) {
+        int position = recordCount();
+        store(record);
+
+        Customer customer = record.getCustomer();
+        IntList byCustomer = positionsByCustomer.get(customer.getCustomerId());
+        if (byCustomer == null) {
+            byCustomer = new IntList();
+            positionsByCustomer.put(customer.getCustomerId(), byCustomer);
+            indexName(customer);
+        }
+        byCustomer.add(position);
+
+        positionsByPlate.computeIfAbsent(record.getVehicle().getLicensePlate().toUpperCase(), k -> new IntList())
+                .add(position);
+        positionsByDate.computeIfAbsent(record.getRecordDate(), k -> new IntList()).add(position);
     }
 
-    public List<RentalRecord> getRentalHistory() {
-        return rentalRecords;
+    // Returns a copy so callers can iterate while other threads keep adding records.
+    public synchronized List<RentalRecord> getRentalHistory() {
+        return allRecords();
     }
 
-    public List<RentalRecord> getRentalRecordsByCustomer(String customerName) {
+    public synchronized int size() {
+        return recordCount();
+    }
+
+    // Up to limit records from position offset on, in insertion order. Positions never move, so
+    // offset plus the page size is where the next page starts.
+    public synchronized List<RentalRecord> getPage(int offset, int limit) {
+        int from = Math.max(offset, 0);
+        int to = (int) Math.min((long) from + Math.max(limit, 0), recordCount());
+        List<RentalRecord> page = new ArrayList<>(Math.max(to - from, 0));
+        for (int i = from; i < to; i++) {
+            page.add(recordAt(i));
+        }
+        return page;
+    }
+
+    // Lazy views of the records present when they are called; records added later are not
+    // included. Records are read PAGE_SIZE at a time under the lock, so writers are only held up
+    // for one page however slowly the stream is consumed, and nothing is copied up front except
+    // the matching positions.
+    public Stream<RentalRecord> stream() {
+        int end = size();
+        int[] next = { 0 };
+        return PagedStream.of(() -> {
+            List<RentalRecord> page = getPage(next[0], Math.min(PAGE_SIZE, end - next[0]));
+            next[0] += page.size();
+            return page;
+        });
+    }
+
+    public Stream<RentalRecord> streamRecordsByCustomerId(int customerId) {
+        int[] positions;
+        synchronized (this) {
+            IntList list = positionsByCustomer.get(customerId);
+            positions = list == null ? new int[0] : list.toArray();
+        }
+        return streamAt(positions);
+    }
+
+    public Stream<RentalRecord> streamRecordsByVehicle(String licensePlate) {
+        int[] positions;
+        synchronized (this) {
+            IntList list = licensePlate == null ? null : positionsByPlate.get(licensePlate.toUpperCase());
+            positions = list == null ? new int[0] : list.toArray();
+        }
+        return streamAt(positions);
+    }
+
+    // Same order as getRentalRecordsBetween
+    public Stream<RentalRecord> streamRecordsBetween(LocalDate from, LocalDate to) {
+        return streamAt(positionsBetween(from, to));
+    }
+
+    // Name search: every word in customerName must be the start of a word in the customer's name,
+    // so "ann" finds "Anne Smith" and "j doe" finds "Jane Doe".
+    public synchronized List<RentalRecord> getRentalRecordsByCustomer(String customerName) {
+        String[] tokens = tokenize(customerName);
+        if (tokens.length == 0) {
+            return allRecords();
+        }
+
+        IntHashMap<Boolean> matches = null;
+        for (String token : tokens) {
+            IntHashMap<Boolean> tokenMatches = new IntHashMap<>();
+            for (IntList ids : prefixRange(token).values()) {
+                for (int i = 0; i < ids.size(); i++) {
+                    int id = ids.get(i);
+                    if (matches == null || matches.containsKey(id)) {
+                        tokenMatches.put(id, Boolean.TRUE);
+                    }
+                }
+            }
+            matches = tokenMatches;
+            if (matches.isEmpty()) {
+                return new ArrayList<>();
+            }
+        }
+
+        List<IntList> lists = new ArrayList<>();
+        int total = 0;
+        for (int id : matches.keys()) {
+            IntList positions = positionsByCustomer.get(id);
+            lists.add(positions);
+            total += positions.size();
+        }
+        return recordsAt(lists, total);
+    }
+
+    public synchronized List<RentalRecord> getRentalRecordsByCustomerId(int customerId) {
+        IntList positions = positionsByCustomer.get(customerId);
+        return positions == null ? new ArrayList<>() : recordsAt(positions);
+    }
+
+    public synchronized List<RentalRecord> getRentalRecordsByVehicle(String licensePlate) {
+        IntList positions = licensePlate == null ? null : positionsByPlate.get(licensePlate.toUpperCase());
+        return positions == null ? new ArrayList<>() : recordsAt(positions);
+    }
+
+    // Records dated from..to inclusive, in date order (insertion order within a day).
+    public synchronized List<RentalRecord> getRentalRecordsBetween(LocalDate from, LocalDate to) {
         List<RentalRecord> result = new ArrayList<>();
-        for (RentalRecord record : rentalRecords) {
-            if (record.getCustomer().toString().toLowerCase().contains(customerName.toLowerCase())) {
-                result.add(record);
+        if (from.isAfter(to)) {
+            return result;
+        }
+        for (IntList positions : positionsByDate.subMap(from, true, to, true).values()) {
+            for (int i = 0; i < positions.size(); i++) {
+                result.add(recordAt(positions.get(i)));
             }
         }
         return result;
     }
 
-    public List<RentalRecord> getRentalRecordsByVehicle(String licensePlate) {
-        List<RentalRecord> result = new ArrayList<>();
-        for (RentalRecord record : rentalRecords) {
-            if (record.getVehicle().getLicensePlate().equalsIgnoreCase(licensePlate)) {
-                result.add(record);
+    // Record storage. Subclasses may keep records in a different layout as long as positions
+    // handed out by recordCount() stay stable.
+    protected void store(RentalRecord record) {
+        if (count == rentalRecords.length) {
+            rentalRecords = Arrays.copyOf(rentalRecords, count + (count >> 1));
+        }
+        rentalRecords[count++] = record;
+    }
+
+    protected RentalRecord recordAt(int position) {
+        if (position < 0 || position >= count) {
+            throw new IndexOutOfBoundsException("Index: " + position + ", Size: " + count);
+        }
+        return rentalRecords[position];
+    }
+
+    protected int recordCount() {
+        return count;
+    }
+
+    // The records stored when snapshot() was called, readable from any thread without the lock.
+    public interface Snapshot {
+        int size();
+
+        RentalRecord get(int position);
+    }
+
+    public synchronized Snapshot snapshot() {
+        return newSnapshot();
+    }
+
+    // Called under the lock. Records are only ever appended and a full array is copied rather than
+    // changed, so holding on to the current array is enough. Subclasses that override store must
+    // override this too.
+    protected Snapshot newSnapshot() {
+        RentalRecord[] records = rentalRecords;
+        int size = count;
+        return new Snapshot() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public RentalRecord get(int position) {
+                if (position < 0 || position >= size) {
+                    throw new IndexOutOfBoundsException("Index: " + position + ", Size: " + size);
+                }
+                return records[position];
             }
+        };
+    }
+
+    private List<RentalRecord> allRecords() {
+        int count = recordCount();
+        List<RentalRecord> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(recordAt(i));
+        }
+        return result;
+    }
+
+    private Stream<RentalRecord> streamAt(int[] positions) {
+        int[] next = { 0 };
+        return PagedStream.of(() -> {
+            int from = next[0];
+            int to = Math.min(from + PAGE_SIZE, positions.length);
+            next[0] = to;
+            return recordsAt(positions, from, to);
+        });
+    }
+
+    // Positions of the records dated from..to inclusive, from the date index
+    synchronized int[] positionsBetween(LocalDate from, LocalDate to) {
+        IntList positions = new IntList();
+        if (!from.isAfter(to)) {
+            for (IntList day : positionsByDate.subMap(from, true, to, true).values()) {
+                for (int i = 0; i < day.size(); i++) {
+                    positions.add(day.get(i));
+                }
+            }
+        }
+        return positions.toArray();
+    }
+
+    private synchronized List<RentalRecord> recordsAt(int[] positions, int from, int to) {
+        List<RentalRecord> result = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            result.add(recordAt(positions[i]));
         }
         return result;
     }
-}
\ No newline at end of file
+
+    private void indexName(Customer customer) {
+        for (String token : tokenize(customer.getCustomerName())) {
+            customerIdsByNameToken.computeIfAbsent(token, k -> new IntList()).add(customer.getCustomerId());
+        }
+    }
+
+    private SortedMap<String, IntList> prefixRange(String prefix) {
+        return customerIdsByNameToken.subMap(prefix, prefix + Character.MAX_VALUE);
+    }
+
+    private List<RentalRecord> recordsAt(IntList positions) {
+        List<RentalRecord> result = new ArrayList<>(positions.size());
+        for (int i = 0; i < positions.size(); i++) {
+            result.add(recordAt(positions.get(i)));
+        }
+        return result;
+    }
+
+    // Merges several per-customer position lists back into insertion order.
+    private List<RentalRecord> recordsAt(List<IntList> lists, int total) {
+        if (lists.size() == 1) {
+            return recordsAt(lists.get(0));
+        }
+        int[] positions = new int[total];
+        int n = 0;
+        for (IntList list : lists) {
+            for (int i = 0; i < list.size(); i++) {
+                positions[n++] = list.get(i);
+            }
+        }
+        Arrays.sort(positions);
+
+        List<RentalRecord> result = new ArrayList<>(total);
+        for (int position : positions) {
+            result.add(recordAt(position));
+        }
+        return result;
+    }
+
+    private static String[] tokenize(String name) {
+        if (name == null) {
+            return new String[0];
+        }
+        String trimmed = name.trim().toLowerCase();
+        return trimmed.isEmpty() ? new String[0] : trimmed.split("\\s+");
+    }
+}
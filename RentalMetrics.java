@@ -0,0 +1,118 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters and latency histograms for one RentalSystem. Recording is a LongAdder increment or a
+// histogram record, cheap enough to leave on in production; reading is for dashboards and tests.
+public class RentalMetrics {
+    public enum Counter {
+        RENTS,
+        RETURNS,
+        // Rent/return refused because of the vehicle status (a refused batch counts once)
+        REJECTED_TRANSITIONS,
+        // Vehicle or customer not added because the plate or id is taken
+        REJECTED_ADDS,
+        IO_ERRORS
+    }
+
+    public enum Timer {
+        // findVehicleByPlate, findCustomerById
+        LOOKUP,
+        // rentVehicle/returnVehicle and the batch versions, end to end
+        RENT_RETURN,
+        // Every call into the storage: saves, checkpoints, imports
+        PERSIST
+    }
+
+    private final Map<Counter, LongAdder> counters = new EnumMap<>(Counter.class);
+    private final Map<Timer, LatencyHistogram> timers = new EnumMap<>(Timer.class);
+    private ScheduledExecutorService dumper;
+
+    public RentalMetrics() {
+        for (Counter counter : Counter.values()) {
+            counters.put(counter, new LongAdder());
+        }
+        for (Timer timer : Timer.values()) {
+            timers.put(timer, new LatencyHistogram());
+        }
+    }
+
+    public void increment(Counter counter) {
+        counters.get(counter).increment();
+    }
+
+    public void add(Counter counter, long amount) {
+        counters.get(counter).add(amount);
+    }
+
+    public long get(Counter counter) {
+        return counters.get(counter).sum();
+    }
+
+    public LatencyHistogram getHistogram(Timer timer) {
+        return timers.get(timer);
+    }
+
+    void recordSince(Timer timer, long startNanos) {
+        timers.get(timer).recordSince(startNanos);
+    }
+
+    public void reset() {
+        for (LongAdder counter : counters.values()) {
+            counter.reset();
+        }
+        for (LatencyHistogram histogram : timers.values()) {
+            histogram.reset();
+        }
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Counter, LongAdder> entry : counters.entrySet()) {
+            sb.append(entry.getKey().name().toLowerCase()).append('=').append(entry.getValue().sum()).append('\n');
+        }
+        for (Map.Entry<Timer, LatencyHistogram> entry : timers.entrySet()) {
+            sb.append(entry.getKey().name().toLowerCase()).append(": ").append(entry.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // Rewrites the file with a timestamped report every intervalSeconds from a daemon thread. The
+    // report goes to a temporary file first and is moved into place, so readers never see half of
+    // one. Replaces any dump already running.
+    public synchronized void startDump(Path file, long intervalSeconds) {
+        stopDump();
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rental-metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> dumpTo(file), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopDump() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+    }
+
+    public void dumpTo(Path file) {
+        try {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(tmp, ("# " + Instant.now() + "\n" + report()).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Error writing metrics: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,263 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Serves a RentalSystem to many counters and kiosks at once over a line protocol on localhost:
+//
+//   RENT <plate> <customerId> <yyyy-mm-dd> <amount>        OK | ERR <reason>
+//   RETURN <plate> <customerId> <yyyy-mm-dd> <extraFees>   OK | ERR <reason>
+//   ADD_VEHICLE <vehicles.txt line>                        OK | ERR <reason>
+//   ADD_CUSTOMER <id>,<name>                               OK | ERR <reason>
+//   LIST [AVAILABLE|RENTED|ALL] [page] [pageSize]          OK <n> and n vehicle lines
+//   HISTORY <from> <to> [page] [pageSize]                  OK <n> and n record lines
+//   METRICS                                                OK <n> and n report lines
+//   QUIT
+//
+// Each connection gets its own thread: a virtual thread where the JDK has them (21+), otherwise
+// one from a cached pool. Connections spend nearly all their time blocked on the socket, which is
+// what virtual threads are for; on a platform thread pool a few thousand clients still fit.
+//
+// LIST and HISTORY always answer one page (0-based, default 0) of PAGE_SIZE lines, or of pageSize
+// up to MAX_PAGE_SIZE, so no single response grows with the fleet or the history.
+public class RentalServer implements Closeable {
+    private static final int PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int BACKLOG = 4096;
+
+    private final RentalSystem rentalSystem;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = newConnectionExecutor();
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+    private Thread acceptor;
+
+    // Port 0 picks a free port; see getPort().
+    public RentalServer(RentalSystem rentalSystem, int port) throws IOException {
+        this.rentalSystem = rentalSystem;
+        this.serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public synchronized void start() {
+        if (acceptor == null) {
+            acceptor = new Thread(this::acceptLoop, "rental-server-accept");
+            acceptor.start();
+        }
+    }
+
+    public void awaitTermination() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = acceptor;
+        }
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    // Stops accepting and drops every open connection; handlers end when their socket closes.
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket socket : openSockets) {
+            socket.close();
+        }
+        connections.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                openSockets.add(socket);
+                connections.execute(() -> serve(socket));
+            } catch (SocketException e) {
+                // closed
+            } catch (IOException e) {
+                System.out.println("Error accepting connection: " + e.getMessage());
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().equalsIgnoreCase("QUIT")) {
+                    break;
+                }
+                out.write(handle(line));
+                // Clients send one command and wait, so flush only when nothing else is queued
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // client went away
+        } finally {
+            openSockets.remove(socket);
+        }
+    }
+
+    // The response to one command line, newline-terminated.
+    String handle(String line) {
+        String[] parts = line.trim().split("\\s+", 2);
+        String args = parts.length > 1 ? parts[1].trim() : "";
+        try {
+            switch (parts[0].toUpperCase()) {
+                case "RENT":
+                    return rentOrReturn(args, true);
+                case "RETURN":
+                    return rentOrReturn(args, false);
+                case "ADD_VEHICLE":
+                    return imported(rentalSystem.importVehicles(Stream.of(args)));
+                case "ADD_CUSTOMER":
+                    return imported(rentalSystem.importCustomers(Stream.of(args)));
+                case "LIST":
+                    return list(args);
+                case "HISTORY":
+                    return history(args);
+                case "METRICS":
+                    return lines(List.of(rentalSystem.getMetrics().report().split("\n")));
+                case "":
+                    return "ERR empty command\n";
+                default:
+                    return "ERR unknown command " + parts[0] + "\n";
+            }
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return "ERR " + e.getMessage() + "\n";
+        }
+    }
+
+    private String rentOrReturn(String args, boolean rent) {
+        String[] fields = args.split("\\s+");
+        if (fields.length != 4) {
+            return "ERR usage: " + (rent ? "RENT" : "RETURN") + " <plate> <customerId> <date> <amount>\n";
+        }
+        Vehicle vehicle = rentalSystem.findVehicleByPlate(fields[0]);
+        if (vehicle == null) {
+            return "ERR unknown vehicle " + fields[0] + "\n";
+        }
+        Customer customer = rentalSystem.findCustomerById(Integer.parseInt(fields[1]));
+        if (customer == null) {
+            return "ERR unknown customer " + fields[1] + "\n";
+        }
+        LocalDate date = LocalDate.parse(fields[2]);
+        double amount = Double.parseDouble(fields[3]);
+        if (rent) {
+            return rentalSystem.rentVehicle(vehicle, customer, date, amount) ? "OK\n" : "ERR not available\n";
+        }
+        return rentalSystem.returnVehicle(vehicle, customer, date, amount) ? "OK\n" : "ERR not rented\n";
+    }
+
+    private static String imported(ImportReport report) {
+        if (report.getImported() == 1) {
+            return "OK\n";
+        }
+        return report.getRejections().isEmpty() ? "ERR nothing to add\n"
+                : "ERR " + report.getRejections().get(0).getReason() + "\n";
+    }
+
+    private String list(String args) {
+        String[] fields = args.isEmpty() ? new String[0] : args.split("\\s+");
+        if (fields.length > 3) {
+            return "ERR usage: LIST [AVAILABLE|RENTED|ALL] [page] [pageSize]\n";
+        }
+        Vehicle.VehicleStatus status = fields.length == 0 || fields[0].equalsIgnoreCase("ALL") ? null
+                : Vehicle.VehicleStatus.valueOf(fields[0].toUpperCase());
+        int pageSize = pageSize(fields, 2);
+        List<Vehicle> page = rentalSystem.getVehiclePage(status, page(fields, 1) * pageSize, pageSize);
+        StringBuilder sb = new StringBuilder("OK ").append(page.size()).append('\n');
+        for (Vehicle vehicle : page) {
+            sb.append(rentalSystem.renderVehicle(vehicle)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // One page of the records in the range, read lazily
+    private String history(String args) {
+        String[] fields = args.split("\\s+");
+        if (fields.length < 2 || fields.length > 4) {
+            return "ERR usage: HISTORY <from> <to> [page] [pageSize]\n";
+        }
+        LocalDate from = LocalDate.parse(fields[0]);
+        LocalDate to = LocalDate.parse(fields[1]);
+        int pageSize = pageSize(fields, 3);
+        long skip = page(fields, 2) * pageSize;
+        try (Stream<RentalRecord> records = rentalSystem.streamRentalRecordsBetween(from, to)) {
+            return lines(records.skip(skip).limit(pageSize).collect(Collectors.toList()));
+        } catch (UncheckedIOException e) {
+            return "ERR " + e.getMessage() + "\n";
+        }
+    }
+
+    private static long page(String[] fields, int index) {
+        return fields.length > index ? Math.max(Long.parseLong(fields[index]), 0) : 0;
+    }
+
+    private static int pageSize(String[] fields, int index) {
+        if (fields.length <= index) {
+            return PAGE_SIZE;
+        }
+        int pageSize = Integer.parseInt(fields[index]);
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("page size must be 1 to " + MAX_PAGE_SIZE);
+        }
+        return pageSize;
+    }
+
+    private static String lines(List<?> items) {
+        StringBuilder sb = new StringBuilder("OK ").append(items.size()).append('\n');
+        for (Object item : items) {
+            sb.append(item).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() is looked up by reflection so this still builds
+    // and runs on JDKs before 21.
+    static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "rental-server-connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    //   java RentalServer [port]     (default 7070; storage chosen as for the app, see RentalSystem)
+    public static void main(String[] args) throws Exception {
+        RentalSystem rentalSystem = RentalSystem.getInstance();
+        rentalSystem.setQuiet(true);
+        RentalServer server = new RentalServer(rentalSystem, args.length > 0 ? Integer.parseInt(args[0]) : 7070);
+        server.start();
+        System.out.println("Rental server listening on localhost:" + server.getPort());
+        server.awaitTermination();
+    }
+}
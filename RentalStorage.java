@@ -0,0 +1,151 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// Where RentalSystem keeps its vehicles, customers and rental records. The system calls load once
+// on startup, then the save methods as things change. Records stay "live" (replayed into memory
+// on load) until a checkpoint moves them to the archive, from where archivedRecords serves them.
+//
+// Implementations: FlatFileStorage (the text files in a directory), InMemoryStorage (tests and
+// benchmarks) and JdbcStorage (an embedded database such as H2 or SQLite). AsyncStorage wraps any
+// of them to take journal writes off the caller's thread.
+public interface RentalStorage extends Closeable {
+
+    // How far a saved rental record has got: accepted in memory, handed to the OS (or committed),
+    // or forced to stable storage.
+    enum Ack { MEMORY, WRITTEN, FSYNCED }
+
+    // What a storage loads into. Lookups resolve stored records to the loaded objects.
+    interface Catalog {
+        // False if the plate / id is already registered
+        boolean registerVehicle(Vehicle vehicle);
+
+        boolean registerCustomer(Customer customer);
+
+        Vehicle findVehicleByPlate(String plate);
+
+        Customer findCustomerById(int id);
+
+        // Applies a live record to the in-memory history and the vehicle status
+        void replayRecord(RentalRecord record);
+
+        void registerReservation(Reservation reservation);
+
+        // Running totals over the archived records, as handed to the last checkpoint
+        // (RentalAggregates.toLines). Not called when the storage has none saved.
+        void restoreAggregates(List<String> lines);
+    }
+
+    void load(Catalog catalog) throws IOException;
+
+    void saveVehicle(Vehicle vehicle) throws IOException;
+
+    void saveCustomer(Customer customer) throws IOException;
+
+    // Bulk versions for imports: the whole list goes out as one batch.
+    void saveVehicles(List<Vehicle> vehicles) throws IOException;
+
+    void saveCustomers(List<Customer> customers) throws IOException;
+
+    void saveRentalRecord(RentalRecord record) throws IOException;
+
+    // One journal write for a batch rental or return. All or nothing: if it throws, none of the
+    // records are stored, so it can be retried.
+    void saveRentalRecords(List<RentalRecord> records) throws IOException;
+
+    // Reservations are few and change rarely, so they are written straight through.
+    void saveReservation(Reservation reservation) throws IOException;
+
+    void deleteReservation(Reservation reservation) throws IOException;
+
+    // Persists every vehicle's status and archives all live records, together with the running
+    // totals over the whole archive (aggregates) so load can hand them back. Called with all
+    // rentals blocked; afterwards RentalSystem starts a fresh in-memory history.
+    void checkpoint(List<Vehicle> vehicles, List<Customer> customers, List<String> aggregates) throws IOException;
+
+    // Like checkpoint, and also drops duplicate and malformed vehicle/customer entries.
+    void compact(List<Vehicle> vehicles, List<Customer> customers, List<String> aggregates) throws IOException;
+
+    // Archived records dated from..to inclusive in the order they were written; null bounds are open.
+    List<RentalRecord> archivedRecords(LocalDate from, LocalDate to) throws IOException;
+
+    // The same records read lazily, as archived at the time of the call: a checkpoint taken while
+    // the stream is read does not add to it. Read errors surface as UncheckedIOException. Close
+    // the stream when done, as it may hold a file open. By default the list is built up front.
+    default Stream<RentalRecord> streamArchivedRecords(LocalDate from, LocalDate to) throws IOException {
+        return archivedRecords(from, to).stream();
+    }
+
+    // One independently readable part of the archive, see splitArchivedRecords.
+    interface ArchivePart {
+        // Hands the part's records to action in the order they were written, on the calling thread
+        void forEach(Consumer<? super RentalRecord> action) throws IOException;
+    }
+
+    // The records of streamArchivedRecords(from, to), as archived at the time of the call, split
+    // into parts that can be read at the same time, e.g. by fork/join tasks that combine records
+    // in any order. parts is a hint for how many. By default the whole stream is the only part.
+    default List<ArchivePart> splitArchivedRecords(LocalDate from, LocalDate to, int parts) throws IOException {
+        Stream<RentalRecord> records = streamArchivedRecords(from, to);
+        return List.of(action -> {
+            try (Stream<RentalRecord> stream = records) {
+                stream.forEach(action);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    // Archived records of one customer, or of one vehicle (plate in any letter case), in the order
+    // they were written. By default the whole archive is scanned.
+    default List<RentalRecord> archivedRecordsByCustomer(int customerId) throws IOException {
+        List<RentalRecord> result = new ArrayList<>();
+        for (RentalRecord record : archivedRecords(null, null)) {
+            if (record.getCustomer().getCustomerId() == customerId) {
+                result.add(record);
+            }
+        }
+        return result;
+    }
+
+    default List<RentalRecord> archivedRecordsByVehicle(String licensePlate) throws IOException {
+        List<RentalRecord> result = new ArrayList<>();
+        for (RentalRecord record : archivedRecords(null, null)) {
+            if (record.getVehicle().getLicensePlate().equalsIgnoreCase(licensePlate)) {
+                result.add(record);
+            }
+        }
+        return result;
+    }
+
+    // Brings every record saved so far up to the given level. Nothing to do by default: a storage
+    // that writes synchronously has the record by the time the save returns.
+    default void sync(Ack level) throws IOException {
+    }
+
+    // Completes once every record saved before the call has reached the given level. Synchronous
+    // storages sync on the caller's thread; AsyncStorage completes it from its writer thread.
+    default CompletableFuture<Void> whenSaved(Ack level) {
+        try {
+            sync(level);
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // Flushes anything buffered.
+    @Override
+    void close() throws IOException;
+
+    static void reportLoad(String source, int parsed, int skipped, long startNanos) {
+        long millis = (System.nanoTime() - startNanos) / 1_000_000;
+        System.out.println("Loaded " + source + ": " + parsed + " rows, " + skipped + " skipped in " + millis + " ms");
+    }
+}
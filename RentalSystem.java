@@ -1,267 +1,1207 @@
 import java.util.List;
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 public class RentalSystem {
-    private static RentalSystem instance;
+    private static final int SNAPSHOT_INTERVAL = 10_000;
+    private static final boolean COMPACT_HISTORY = Boolean.getBoolean("rental.compactHistory");
+
+    private static final int LOCK_STRIPES = 64;
+    private static final int PAGE_SIZE = 50;
+    private static final int ROW_CACHE_SIZE = Integer.getInteger("rental.rowCacheSize", 4096);
+
+    private static volatile RentalSystem instance;
 
     private List<Vehicle> vehicles = new ArrayList<>();
     private List<Customer> customers = new ArrayList<>();
-    private RentalHistory rentalHistory = new RentalHistory();
+    private Map<String, Vehicle> vehiclesByPlate = new ConcurrentHashMap<>();
+    private IntHashMap<Customer> customersById = new IntHashMap<>();
+    // Vehicles in each status keyed by fleet position, kept current by the vehicles' status
+    // listeners, so listing the available ones costs O(available) rather than O(fleet)
+    private final Map<Vehicle.VehicleStatus, ConcurrentSkipListMap<Integer, Vehicle>> vehiclesByStatus =
+            new EnumMap<>(Vehicle.VehicleStatus.class);
+    private final Map<Vehicle.VehicleStatus, AtomicInteger> statusCounts = new EnumMap<>(Vehicle.VehicleStatus.class);
+    private final FleetIndex fleetIndex = new FleetIndex();
+    private volatile RentalHistory rentalHistory = newHistory();
+    // Spans the archive as well as the live history, so it is not reset by a snapshot
+    private final RentalAggregates aggregates = new RentalAggregates();
+    // Set during load when the storage hands back the totals saved by the last checkpoint
+    private boolean aggregatesRestored;
+    private final ReservationCalendar reservations = new ReservationCalendar();
+    // Rendered listing rows for screens that refresh constantly. Table rows do not show the status
+    // and never go stale; getInfo rows are versioned by status.
+    private final RenderCache<Vehicle> vehicleRows = new RenderCache<>(ROW_CACHE_SIZE);
+    private final RenderCache<Vehicle> vehicleInfo = new RenderCache<>(ROW_CACHE_SIZE);
+    private final RenderCache<RentalRecord> recordRows = new RenderCache<>(ROW_CACHE_SIZE);
+    private final RentalStorage storage;
+    private AtomicInteger recordsSinceSnapshot = new AtomicInteger();
+
+    // Rent/return on one vehicle is serialized by the stripe its plate hashes to, so different
+    // vehicles proceed in parallel. The catalog lock guards the vehicle/customer lists and the
+    // customer index. A snapshot takes the catalog lock and then every stripe, in that order.
+    private final ReentrantLock[] plateLocks = new ReentrantLock[LOCK_STRIPES];
+    private final ReentrantReadWriteLock catalogLock = new ReentrantReadWriteLock();
+    private final AtomicBoolean snapshotRunning = new AtomicBoolean();
+
+    private final RentalMetrics metrics = new RentalMetrics();
+    private Path metricsFile;
+    // -Drental.quiet=true or setQuiet(true) silences the per-call messages of add, rent and
+    // return; errors are still printed
+    private volatile boolean quiet = Boolean.getBoolean("rental.quiet");
 
     private RentalSystem() {
+        this(defaultStorage());
+        addShutdownHook();
+        startMetricsDump();
+    }
+
+    // Stand-alone instance over the given storage, for benchmarks and tests that must not touch
+    // the working directory. Call close() when done.
+    RentalSystem(RentalStorage storage) {
+        this.storage = storage;
+        for (Vehicle.VehicleStatus status : Vehicle.VehicleStatus.values()) {
+            vehiclesByStatus.put(status, new ConcurrentSkipListMap<>());
+            statusCounts.put(status, new AtomicInteger());
+        }
+        for (int i = 0; i < plateLocks.length; i++) {
+            plateLocks[i] = new ReentrantLock();
+        }
         loadData();
     }
 
+    // Creates the singleton over the given storage instead of the default one. Must be called
+    // before the first getInstance().
+    public static void initialize(RentalStorage storage) {
+        synchronized (RentalSystem.class) {
+            if (instance != null) {
+                throw new IllegalStateException("RentalSystem is already initialized");
+            }
+            RentalSystem system = new RentalSystem(storage);
+            system.addShutdownHook();
+            system.startMetricsDump();
+            instance = system;
+        }
+    }
+
     public static RentalSystem getInstance() {
-        if (instance == null) {
-            instance = new RentalSystem();
+        RentalSystem result = instance;
+        if (result == null) {
+            synchronized (RentalSystem.class) {
+                result = instance;
+                if (result == null) {
+                    instance = result = new RentalSystem();
+                }
+            }
         }
-        return instance;
+        return result;
+    }
+
+    // -Drental.storage=flat (default, files in the working directory), memory or jdbc; see JdbcStorage.
+    // -Drental.async=true puts an AsyncStorage in front of it.
+    private static RentalStorage defaultStorage() {
+        RentalStorage storage;
+        String kind = System.getProperty("rental.storage", "flat");
+        switch (kind) {
+            case "memory":
+                storage = new InMemoryStorage();
+                break;
+            case "jdbc":
+                storage = new JdbcStorage(System.getProperty("rental.jdbcUrl", "jdbc:h2:./rental"),
+                        Integer.getInteger("rental.batchRecords", 256));
+                break;
+            default:
+                storage = new FlatFileStorage(Paths.get("."));
+        }
+        if (Boolean.getBoolean("rental.async")) {
+            storage = new AsyncStorage(storage, Integer.getInteger("rental.queueCapacity", 8192),
+                    Integer.getInteger("rental.batchRecords", 256),
+                    RentalStorage.Ack.valueOf(System.getProperty("rental.ack", RentalStorage.Ack.WRITTEN.name())));
+        }
+        return storage;
+    }
+
+    private void addShutdownHook() {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "rental-system-shutdown"));
+    }
+
+    // -Drental.metricsFile=path rewrites that file with getMetrics().report() every
+    // -Drental.metricsInterval seconds (default 60) and once more on close.
+    private void startMetricsDump() {
+        String file = System.getProperty("rental.metricsFile");
+        if (file != null) {
+            metricsFile = Paths.get(file);
+            metrics.startDump(metricsFile, Long.getLong("rental.metricsInterval", 60));
+        }
+    }
+
+    public RentalMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Completes once every rental record journaled so far has reached the given level, e.g. to
+    // confirm a rental to the customer only after it is on disk when saves only wait for MEMORY.
+    public CompletableFuture<Void> whenSaved(RentalStorage.Ack level) {
+        return storage.whenSaved(level);
+    }
+
+    // Revenue and utilization over the whole history, archived and live.
+    public RentalAggregates getAggregates() {
+        return aggregates;
+    }
+
+    public void setQuiet(boolean quiet) {
+        this.quiet = quiet;
     }
 
     public boolean addVehicle(Vehicle vehicle) {
-        if(findVehicleByPlate(vehicle.getLicensePlate()) != null) {
-            System.out.println("A vehicle with this license plate already exists: " + vehicle.getLicensePlate());
-            return false;
+        catalogLock.writeLock().lock();
+        try {
+            if (!registerVehicle(vehicle)) {
+                metrics.increment(RentalMetrics.Counter.REJECTED_ADDS);
+                if (!quiet) {
+                    System.out.println("A vehicle with this license plate already exists: " + vehicle.getLicensePlate());
+                }
+                return false;
+            }
+            saveVehicle(vehicle);
+            return true;
+        } finally {
+            catalogLock.writeLock().unlock();
         }
-        vehicles.add(vehicle);
-        saveVehicle(vehicle);
-        return true;
     }
 
     public boolean addCustomer(Customer customer) {
-        if (findCustomerById(String.valueOf(customer.getCustomerId())) != null) {
-            System.out.println("A customer with this ID already exists: " + customer.getCustomerId());
-            return false;
+        catalogLock.writeLock().lock();
+        try {
+            if (!registerCustomer(customer)) {
+                metrics.increment(RentalMetrics.Counter.REJECTED_ADDS);
+                if (!quiet) {
+                    System.out.println("A customer with this ID already exists: " + customer.getCustomerId());
+                }
+                return false;
+            }
+            saveCustomer(customer);
+            return true;
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    // Bulk import of lines in the vehicles.txt format (Type,plate,make,model,year,seats|sidecar|cargo).
+    // Rows are parsed and validated before the catalog lock is taken. Under it they are checked
+    // against the plate index, which also catches repeats within the import, and the accepted ones
+    // are saved as one batch.
+    public ImportReport importVehicles(Stream<String> lines) {
+        ImportReport report = new ImportReport();
+        List<Vehicle> candidates = new ArrayList<>();
+        IntList candidateLines = new IntList();
+        List<String> candidateText = new ArrayList<>();
+        int lineNumber = 0;
+        for (Iterator<String> it = lines.iterator(); it.hasNext(); ) {
+            String line = it.next();
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                candidates.add(parseVehicleLine(line));
+                candidateLines.add(lineNumber);
+                candidateText.add(line);
+            } catch (IllegalArgumentException e) {
+                report.reject(lineNumber, line, e.getMessage());
+            }
+        }
+
+        List<Vehicle> accepted = new ArrayList<>(candidates.size());
+        catalogLock.writeLock().lock();
+        try {
+            for (int i = 0; i < candidates.size(); i++) {
+                if (registerVehicle(candidates.get(i))) {
+                    accepted.add(candidates.get(i));
+                } else {
+                    report.reject(candidateLines.get(i), candidateText.get(i),
+                            "duplicate license plate " + candidates.get(i).getLicensePlate());
+                }
+            }
+            if (!accepted.isEmpty()) {
+                long start = System.nanoTime();
+                storage.saveVehicles(accepted);
+                metrics.recordSince(RentalMetrics.Timer.PERSIST, start);
+            }
+        } catch (IOException e) {
+            metrics.increment(RentalMetrics.Counter.IO_ERRORS);
+            System.out.println("Error saving vehicles: " + e.getMessage());
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+        report.finish(accepted.size());
+        return report;
+    }
+
+    public ImportReport importVehicles(Path file) {
+        try (Stream<String> lines = Files.lines(file)) {
+            return importVehicles(lines);
+        } catch (IOException | UncheckedIOException e) {
+            metrics.increment(RentalMetrics.Counter.IO_ERRORS);
+            System.out.println("Error importing vehicles: " + e.getMessage());
+            return new ImportReport();
+        }
+    }
+
+    // Bulk import of lines in the customers.txt format (id,name).
+    public ImportReport importCustomers(Stream<String> lines) {
+        ImportReport report = new ImportReport();
+        List<Customer> candidates = new ArrayList<>();
+        IntList candidateLines = new IntList();
+        List<String> candidateText = new ArrayList<>();
+        int lineNumber = 0;
+        for (Iterator<String> it = lines.iterator(); it.hasNext(); ) {
+            String line = it.next();
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                candidates.add(parseCustomerLine(line));
+                candidateLines.add(lineNumber);
+                candidateText.add(line);
+            } catch (IllegalArgumentException e) {
+                report.reject(lineNumber, line, e.getMessage());
+            }
+        }
+
+        List<Customer> accepted = new ArrayList<>(candidates.size());
+        catalogLock.writeLock().lock();
+        try {
+            for (int i = 0; i < candidates.size(); i++) {
+                if (registerCustomer(candidates.get(i))) {
+                    accepted.add(candidates.get(i));
+                } else {
+                    report.reject(candidateLines.get(i), candidateText.get(i),
+                            "duplicate customer ID " + candidates.get(i).getCustomerId());
+                }
+            }
+            if (!accepted.isEmpty()) {
+                long start = System.nanoTime();
+                storage.saveCustomers(accepted);
+                metrics.recordSince(RentalMetrics.Timer.PERSIST, start);
+            }
+        } catch (IOException e) {
+            metrics.increment(RentalMetrics.Counter.IO_ERRORS);
+            System.out.println("Error saving customers: " + e.getMessage());
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+        report.finish(accepted.size());
+        return report;
+    }
+
+    public ImportReport importCustomers(Path file) {
+        try (Stream<String> lines = Files.lines(file)) {
+            return importCustomers(lines);
+        } catch (IOException | UncheckedIOException e) {
+            metrics.increment(RentalMetrics.Counter.IO_ERRORS);
+            System.out.println("Error importing customers: " + e.getMessage());
+            return new ImportReport();
+        }
+    }
+
+    // Throws IllegalArgumentException with the reason if the line is not a valid vehicle.
+    private static Vehicle parseVehicleLine(String line) {
+        String[] parts = line.split(",", -1);
+        if (parts.length != 6) {
+            throw new IllegalArgumentException("expected 6 fields, found " + parts.length);
+        }
+        String plate = parts[1].trim();
+        if (!Vehicle.isValidPlate(plate)) {
+            throw new IllegalArgumentException("invalid license plate " + plate);
+        }
+        String make = parts[2].trim();
+        String model = parts[3].trim();
+        int year = parseNumber(parts[4], "year");
+        String attribute = parts[5].trim();
+
+        Vehicle vehicle;
+        switch (parts[0].trim()) {
+            case "Car":
+                vehicle = new Car(make, model, year, parseNumber(attribute, "number of seats"));
+                break;
+            case "Motorcycle":
+                if (!attribute.equalsIgnoreCase("true") && !attribute.equalsIgnoreCase("false")) {
+                    throw new IllegalArgumentException("sidecar must be true or false: " + attribute);
+                }
+                vehicle = new Motorcycle(make, model, year, Boolean.parseBoolean(attribute));
+                break;
+            case "Truck":
+                try {
+                    vehicle = new Truck(make, model, year, Double.parseDouble(attribute));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("invalid cargo capacity: " + attribute);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown vehicle type " + parts[0].trim());
+        }
+        vehicle.setLicensePlate(plate);
+        return vehicle;
+    }
+
+    private static Customer parseCustomerLine(String line) {
+        int comma = line.indexOf(',');
+        if (comma < 0) {
+            throw new IllegalArgumentException("expected id,name");
+        }
+        String name = line.substring(comma + 1).trim();
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("missing customer name");
+        }
+        return new Customer(parseNumber(line.substring(0, comma), "customer ID"), name);
+    }
+
+    private static int parseNumber(String text, String field) {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid " + field + ": " + text.trim());
         }
-        customers.add(customer);
-        saveCustomer(customer);
-        return true;
     }
 
     public boolean rentVehicle(Vehicle vehicle, Customer customer, LocalDate date, double amount) {
-        if (vehicle.getStatus() == Vehicle.VehicleStatus.AVAILABLE) {
-            vehicle.setStatus(Vehicle.VehicleStatus.RENTED);
-            RentalRecord record = new RentalRecord(vehicle, customer, date, amount, "RENT");
-            rentalHistory.addRecord(record);
-            saveRentalRecord(record);
-            System.out.println("Vehicle rented to " + customer.getCustomerName());
+        long start = System.nanoTime();
+        try {
+            if (!transition(vehicle, Vehicle.VehicleStatus.AVAILABLE, Vehicle.VehicleStatus.RENTED,
+                    new RentalRecord(vehicle, customer, date, amount, "RENT"), "Vehicle is not available for renting.")) {
+                return false;
+            }
+            metrics.increment(RentalMetrics.Counter.RENTS);
+            if (!quiet) {
+                System.out.println("Vehicle rented to " + customer.getCustomerName());
+            }
             return true;
-        } else {
-            System.out.println("Vehicle is not available for renting.");
-            return false;
+        } finally {
+            metrics.recordSince(RentalMetrics.Timer.RENT_RETURN, start);
         }
     }
 
     public boolean returnVehicle(Vehicle vehicle, Customer customer, LocalDate date, double extraFees) {
-        if (vehicle.getStatus() == Vehicle.VehicleStatus.RENTED) {
-            vehicle.setStatus(Vehicle.VehicleStatus.AVAILABLE);
-            RentalRecord record = new RentalRecord(vehicle, customer, date, extraFees, "RETURN");
+        long start = System.nanoTime();
+        try {
+            if (!transition(vehicle, Vehicle.VehicleStatus.RENTED, Vehicle.VehicleStatus.AVAILABLE,
+                    new RentalRecord(vehicle, customer, date, extraFees, "RETURN"), "Vehicle is not rented.")) {
+                return false;
+            }
+            metrics.increment(RentalMetrics.Counter.RETURNS);
+            if (!quiet) {
+                System.out.println("Vehicle returned by " + customer.getCustomerName());
+            }
+            return true;
+        } finally {
+            metrics.recordSince(RentalMetrics.Timer.RENT_RETURN, start);
+        }
+    }
+
+    // Check-then-act on the vehicle status under its plate stripe. The record is journaled while
+    // the stripe is still held so the journal order per vehicle matches the status order, and
+    // before the status changes, so a failed write (e.g. a batch AsyncStorage gave up on) leaves
+    // the vehicle as it was, like transitionAll.
+    private boolean transition(Vehicle vehicle, Vehicle.VehicleStatus from, Vehicle.VehicleStatus to,
+                               RentalRecord record, String refusal) {
+        ReentrantLock lock = lockFor(vehicle.getLicensePlate());
+        lock.lock();
+        try {
+            if (vehicle.getStatus() != from || reservedForSomeoneElse(vehicle, record, to)) {
+                metrics.increment(RentalMetrics.Counter.REJECTED_TRANSITIONS);
+                if (!quiet) {
+                    System.out.println(refusal);
+                }
+                return false;
+            }
+            if (!saveRentalRecord(record)) {
+                return false;
+            }
+            vehicle.setStatus(to);
             rentalHistory.addRecord(record);
-            saveRentalRecord(record);
-            System.out.println("Vehicle returned by " + customer.getCustomerName());
+            aggregates.addRecord(record);
+        } finally {
+            lock.unlock();
+        }
+        snapshotIfDue();
+        return true;
+    }
+
+    // Rents every vehicle to the customer as one action, or none of them. All stripes involved are
+    // held while the statuses are checked, the batch is journaled in one write and the statuses
+    // change; if any vehicle is not available (or listed twice) nothing is changed.
+    public boolean rentVehicles(List<Vehicle> vehicles, Customer customer, LocalDate date, double amountPerVehicle) {
+        long start = System.nanoTime();
+        List<RentalRecord> records = new ArrayList<>(vehicles.size());
+        for (Vehicle vehicle : vehicles) {
+            records.add(new RentalRecord(vehicle, customer, date, amountPerVehicle, "RENT"));
+        }
+        try {
+            if (!transitionAll(vehicles, Vehicle.VehicleStatus.AVAILABLE, Vehicle.VehicleStatus.RENTED, records,
+                    "available for renting")) {
+                return false;
+            }
+            metrics.add(RentalMetrics.Counter.RENTS, vehicles.size());
+            if (!quiet) {
+                System.out.println(vehicles.size() + " vehicles rented to " + customer.getCustomerName());
+            }
             return true;
-        } else {
-            System.out.println("Vehicle is not rented.");
+        } finally {
+            metrics.recordSince(RentalMetrics.Timer.RENT_RETURN, start);
+        }
+    }
+
+    public boolean returnVehicles(List<Vehicle> vehicles, Customer customer, LocalDate date, double extraFeesPerVehicle) {
+        long start = System.nanoTime();
+        List<RentalRecord> records = new ArrayList<>(vehicles.size());
+        for (Vehicle vehicle : vehicles) {
+            records.add(new RentalRecord(vehicle, customer, date, extraFeesPerVehicle, "RETURN"));
+        }
+        try {
+            if (!transitionAll(vehicles, Vehicle.VehicleStatus.RENTED, Vehicle.VehicleStatus.AVAILABLE, records,
+                    "rented")) {
+                return false;
+            }
+            metrics.add(RentalMetrics.Counter.RETURNS, vehicles.size());
+            if (!quiet) {
+                System.out.println(vehicles.size() + " vehicles returned by " + customer.getCustomerName());
+            }
+            return true;
+        } finally {
+            metrics.recordSince(RentalMetrics.Timer.RENT_RETURN, start);
+        }
+    }
+
+    // Stripes are taken in ascending index order, the same order lockEverything uses, so batches
+    // cannot deadlock with each other or with a snapshot. The journal write comes before any
+    // status change, so a failed write leaves everything as it was.
+    private boolean transitionAll(List<Vehicle> vehicles, Vehicle.VehicleStatus from, Vehicle.VehicleStatus to,
+                                  List<RentalRecord> records, String expected) {
+        if (vehicles.isEmpty()) {
+            return true;
+        }
+        boolean[] stripes = new boolean[LOCK_STRIPES];
+        for (Vehicle vehicle : vehicles) {
+            stripes[stripeFor(vehicle.getLicensePlate())] = true;
+        }
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            if (stripes[i]) {
+                plateLocks[i].lock();
+            }
+        }
+        try {
+            List<String> refused = new ArrayList<>();
+            Map<Vehicle, Boolean> seen = new IdentityHashMap<>();
+            for (int i = 0; i < vehicles.size(); i++) {
+                Vehicle vehicle = vehicles.get(i);
+                if (vehicle.getStatus() != from || seen.put(vehicle, Boolean.TRUE) != null
+                        || reservedForSomeoneElse(vehicle, records.get(i), to)) {
+                    refused.add(vehicle.getLicensePlate());
+                }
+            }
+            if (!refused.isEmpty()) {
+                metrics.increment(RentalMetrics.Counter.REJECTED_TRANSITIONS);
+                if (!quiet) {
+                    System.out.println("Batch not applied, vehicles not " + expected + ": " + String.join(", ", refused));
+                }
+                return false;
+            }
+
+            long start = System.nanoTime();
+            try {
+                storage.saveRentalRecords(records);
+                metrics.recordSince(RentalMetrics.Timer.PERSIST, start);
+            } catch (IOException e) {
+                metrics.increment(RentalMetrics.Counter.IO_ERRORS);
+                System.out.println("Error saving rental records, batch not applied: " + e.getMessage());
+                return false;
+            }
+            for (int i = 0; i < vehicles.size(); i++) {
+                vehicles.get(i).setStatus(to);
+                rentalHistory.addRecord(records.get(i));
+                aggregates.addRecord(records.get(i));
+            }
+            recordsSinceSnapshot.addAndGet(records.size());
+        } finally {
+            for (int i = LOCK_STRIPES - 1; i >= 0; i--) {
+                if (stripes[i]) {
+                    plateLocks[i].unlock();
+                }
+            }
+        }
+        snapshotIfDue();
+        return true;
+    }
+
+    // A vehicle booked for the rental date can only be rented by the customer who booked it.
+    private boolean reservedForSomeoneElse(Vehicle vehicle, RentalRecord record, Vehicle.VehicleStatus to) {
+        if (to != Vehicle.VehicleStatus.RENTED) {
+            return false;
+        }
+        Reservation booked = reservations.reservationOn(vehicle.getLicensePlate(), record.getRecordDate());
+        return booked != null && booked.getCustomer().getCustomerId() != record.getCustomer().getCustomerId();
+    }
+
+    // Books the vehicle for from..to inclusive. Returns null, and changes nothing, if the range is
+    // reversed or overlaps another reservation of the vehicle. The vehicle's current status does
+    // not matter: a car out today can still be booked for next week.
+    public Reservation reserveVehicle(Vehicle vehicle, Customer customer, LocalDate from, LocalDate to) {
+        if (to.isBefore(from)) {
+            System.out.println("Reservation ends before it starts.");
+            return null;
+        }
+        Reservation reservation = new Reservation(vehicle, customer, from, to);
+        long start = System.nanoTime();
+        Reservation conflict;
+        try {
+            conflict = reservations.add(reservation, storage::saveReservation);
+        } catch (IOException e) {
+            metrics.increment(RentalMetrics.Counter.IO_ERRORS);
+            System.out.println("Error saving reservation: " + e.getMessage());
+            return null;
+        }
+        if (conflict != null) {
+            if (!quiet) {
+                System.out.println("Vehicle is already reserved: " + conflict);
+            }
+            return null;
+        }
+        metrics.recordSince(RentalMetrics.Timer.PERSIST, start);
+        if (!quiet) {
+            System.out.println("Vehicle reserved for " + customer.getCustomerName());
+        }
+        return reservation;
+    }
+
+    // The booking is deleted from storage before it leaves the calendar, so a failed delete leaves
+    // it in place rather than having to put it back.
+    public boolean cancelReservation(Reservation reservation) {
+        try {
+            return reservations.remove(reservation, storage::deleteReservation);
+        } catch (IOException e) {
+            metrics.increment(RentalMetrics.Counter.IO_ERRORS);
+            System.out.println("Error cancelling reservation: " + e.getMessage());
             return false;
         }
     }
 
+    // In date order
+    public List<Reservation> getReservations(String plate) {
+        return reservations.getReservations(plate);
+    }
+
+    // Vehicles matching the query with no reservation overlapping from..to. The index narrows the
+    // fleet to the matches first, then each match costs one calendar lookup, O(log bookings).
+    public List<Vehicle> findFreeVehicles(FleetQuery query, LocalDate from, LocalDate to) {
+        List<Vehicle> free = new ArrayList<>();
+        for (Vehicle vehicle : findVehicles(query)) {
+            if (reservations.isFree(vehicle.getLicensePlate(), from, to)) {
+                free.add(vehicle);
+            }
+        }
+        return free;
+    }
+
+    private ReentrantLock lockFor(String plate) {
+        return plateLocks[stripeFor(plate)];
+    }
+
+    private static int stripeFor(String plate) {
+        int h = plate == null ? 0 : plate.toUpperCase().hashCode();
+        return (h ^ (h >>> 16)) & (LOCK_STRIPES - 1);
+    }
+
+    // Prints the first page; see displayVehicles(boolean, int, int).
     public void displayVehicles(boolean onlyAvailable) {
-        System.out.println("|     Type         |\tPlate\t|\tMake\t|\tModel\t|\tYear\t|");
-        System.out.println("---------------------------------------------------------------------------------");
+        displayVehicles(onlyAvailable, 0, PAGE_SIZE);
+    }
 
-        for (Vehicle v : vehicles) {
-            if (!onlyAvailable || v.getStatus() == Vehicle.VehicleStatus.AVAILABLE) {
-                System.out.println(
-                        "|     " + (v instanceof Car ? "Car          " : "Motorcycle   ") + "|\t" + v.getLicensePlate()
-                                + "\t|\t" + v.getMake() + "\t|\t" + v.getModel() + "\t|\t" + v.getYear() + "\t|\t");
+    // Prints one page (0-based) of the fleet, or of the available vehicles, through one buffered
+    // writer. Returns how many vehicles there are in total, for paging.
+    public int displayVehicles(boolean onlyAvailable, int page, int pageSize) {
+        pageSize = Math.max(1, pageSize);
+        page = Math.max(0, page);
+        List<Vehicle> rows = getVehiclePage(onlyAvailable ? Vehicle.VehicleStatus.AVAILABLE : null,
+                (long) page * pageSize, pageSize);
+        int total;
+        if (onlyAvailable) {
+            total = statusCounts.get(Vehicle.VehicleStatus.AVAILABLE).get();
+        } else {
+            catalogLock.readLock().lock();
+            try {
+                total = vehicles.size();
+            } finally {
+                catalogLock.readLock().unlock();
             }
         }
-        System.out.println();
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        out.println("|     Type         |\tPlate\t|\tMake\t|\tModel\t|\tYear\t|");
+        out.println("---------------------------------------------------------------------------------");
+        for (Vehicle v : rows) {
+            out.println(vehicleRows.get(v, null, RentalSystem::tableRow));
+        }
+        int pages = Math.max(1, (total + pageSize - 1) / pageSize);
+        out.println("Page " + (page + 1) + " of " + pages + " (" + total + " vehicles)");
+        out.println();
+        out.flush();
+        return total;
+    }
+
+    private static String tableRow(Vehicle v) {
+        StringBuilder line = new StringBuilder(96);
+        line.append("|     ").append(v.getClass().getSimpleName());
+        for (int pad = v.getClass().getSimpleName().length(); pad < 13; pad++) {
+            line.append(' ');
+        }
+        line.append("|\t").append(v.getLicensePlate())
+                .append("\t|\t").append(v.getMake())
+                .append("\t|\t").append(v.getModel())
+                .append("\t|\t").append(v.getYear()).append("\t|\t");
+        return line.toString();
+    }
+
+    // vehicle.getInfo(), served from the row cache while the status is unchanged. setStatus takes
+    // the vehicle's lock, so holding it keeps the status read as the version and the one getInfo
+    // shows the same.
+    public String renderVehicle(Vehicle vehicle) {
+        synchronized (vehicle) {
+            return vehicleInfo.get(vehicle, vehicle.getStatus(), Vehicle::getInfo);
+        }
+    }
+
+    public String renderRecord(RentalRecord record) {
+        return recordRows.get(record, null, RentalRecord::toString);
+    }
+
+    // Vehicles matching every criterion set on the query, in fleet order.
+    public List<Vehicle> findVehicles(FleetQuery query) {
+        if (!query.hasAttributeFilters() && query.getStatus() != null) {
+            return getVehiclesByStatus(query.getStatus());
+        }
+        catalogLock.readLock().lock();
+        try {
+            return fleetIndex.query(query);
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    // Up to limit vehicles from the offset-th on (0-based, fleet order) of those in the given status,
+    // or of the whole fleet when status is null. Walks the status index only as far as the page
+    // rather than copying it, so a page costs O(offset + limit), and O(limit) for the whole fleet.
+    public List<Vehicle> getVehiclePage(Vehicle.VehicleStatus status, long offset, int limit) {
+        List<Vehicle> page = new ArrayList<>(Math.max(0, Math.min(limit, 1024)));
+        if (status != null) {
+            Iterator<Vehicle> matches = vehiclesByStatus.get(status).values().iterator();
+            for (long i = 0; i < offset && matches.hasNext(); i++) {
+                matches.next();
+            }
+            while (page.size() < limit && matches.hasNext()) {
+                page.add(matches.next());
+            }
+            return page;
+        }
+        catalogLock.readLock().lock();
+        try {
+            if (offset < vehicles.size()) {
+                page.addAll(vehicles.subList((int) offset, (int) Math.min(vehicles.size(), offset + Math.max(limit, 0))));
+            }
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+        return page;
+    }
+
+    // Snapshot of the vehicles currently in the given status, in fleet order.
+    public List<Vehicle> getVehiclesByStatus(Vehicle.VehicleStatus status) {
+        return new ArrayList<>(vehiclesByStatus.get(status).values());
     }
 
     public void displayAllCustomers() {
-        for (Customer c : customers) {
-            System.out.println("  " + c.toString());
+        catalogLock.readLock().lock();
+        try {
+            for (Customer c : customers) {
+                System.out.println("  " + c.toString());
+            }
+        } finally {
+            catalogLock.readLock().unlock();
         }
     }
 
     public void displayRentalHistory() {
-        for (RentalRecord record : rentalHistory.getRentalHistory()) {
-            System.out.println(record.toString());
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        // Records rotated out of the live journal by a snapshot are read back from the archive,
+        // as new objects every time, so only the live ones go through the row cache (and not with
+        // the compact history, which also builds a new object per record on every read)
+        try (Stream<String> rows = historySnapshot(null, null, RentalRecord::toString,
+                COMPACT_HISTORY ? RentalRecord::toString : this::renderRecord)) {
+            rows.forEach(out::println);
+        } catch (UncheckedIOException e) {
+            metrics.increment(RentalMetrics.Counter.IO_ERRORS);
+            out.println("Error reading archived rental records: " + e.getMessage());
         }
+        out.flush();
     }
 
-    public Vehicle findVehicleByPlate(String plate) {
-        for (Vehicle v : vehicles) {
-            if (v.getLicensePlate().equalsIgnoreCase(plate)) {
-                return v;
+    // Every record, archived then live, in journal order. The stream is lazy and holds one page
+    // of records at a time; it covers the history as it stood when called, even if rentals or a
+    // snapshot happen while it is read. Close it when done. Archive read errors surface as
+    // UncheckedIOException.
+    public Stream<RentalRecord> streamRentalHistory() {
+        return historySnapshot(null, null, Function.identity(), Function.identity());
+    }
+
+    // Records dated from..to inclusive, lazily, in the order of getRentalRecordsBetween.
+    public Stream<RentalRecord> streamRentalRecordsBetween(LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) {
+            return Stream.empty();
+        }
+        return historySnapshot(from, to, Function.identity(), Function.identity());
+    }
+
+    // Records dated from..to inclusive. The archived part comes from the storage, the live part
+    // from the in-memory date index.
+    public List<RentalRecord> getRentalRecordsBetween(LocalDate from, LocalDate to) {
+        List<RentalRecord> result = new ArrayList<>();
+        try (Stream<RentalRecord> records = streamRentalRecordsBetween(from, to)) {
+            records.forEach(result::add);
+        } catch (UncheckedIOException e) {
+            metrics.increment(RentalMetrics.Counter.IO_ERRORS);
+            System.out.println("Error reading archived rental records: " + e.getMessage());
+        }
+        return result;
+    }
+
+    // Every record of the customer, archived then live, in journal order: a support desk lookup.
+    // Neither part is a scan: the archived records come through the storage's index (see
+    // ArchiveIndex for flat files), the live ones through the history's customer index.
+    public List<RentalRecord> getRentalRecordsByCustomerId(int customerId) {
+        return historyFor(customerId, null);
+    }
+
+    // Every record of the vehicle (plate in any letter case), archived then live.
+    public List<RentalRecord> getRentalRecordsByVehicle(String licensePlate) {
+        if (licensePlate == null) {
+            return new ArrayList<>();
+        }
+        return historyFor(0, licensePlate);
+    }
+
+    // Both parts under the catalog read lock, so a snapshot can't move records between them
+    private List<RentalRecord> historyFor(int customerId, String licensePlate) {
+        List<RentalRecord> result;
+        catalogLock.readLock().lock();
+        try {
+            try {
+                result = licensePlate == null ? storage.archivedRecordsByCustomer(customerId)
+                        : storage.archivedRecordsByVehicle(licensePlate);
+            } catch (IOException e) {
+                metrics.increment(RentalMetrics.Counter.IO_ERRORS);
+                System.out.println("Error reading archived rental records: " + e.getMessage());
+                result = new ArrayList<>();
             }
+            result.addAll(licensePlate == null ? rentalHistory.getRentalRecordsByCustomerId(customerId)
+                    : rentalHistory.getRentalRecordsByVehicle(licensePlate));
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+        return result;
+    }
+
+    // Up to limit records starting at the offset-th record of the whole history, in journal order.
+    // Offsets stay valid across snapshots, which move records from the live history to the end of
+    // the archive without reordering them. Archived records before the page are still read, so
+    // walk long histories with streamRentalHistory rather than page by page.
+    public List<RentalRecord> getRentalHistoryPage(long offset, int limit) {
+        List<RentalRecord> page = new ArrayList<>();
+        try (Stream<RentalRecord> records = streamRentalHistory()) {
+            records.skip(Math.max(offset, 0)).limit(Math.max(limit, 0)).forEach(page::add);
+        } catch (UncheckedIOException e) {
+            metrics.increment(RentalMetrics.Counter.IO_ERRORS);
+            System.out.println("Error reading archived rental records: " + e.getMessage());
+        }
+        return page;
+    }
+
+    // Writes the whole history to file, streaming it through one buffered writer, and returns the
+    // number of records written, or -1 if the export failed. The export goes to a temporary file
+    // that is moved into place at the end, so the file is never seen half written.
+    public long exportHistory(Path file, HistoryExporter.Format format) {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            long written;
+            try (Stream<RentalRecord> records = streamRentalHistory();
+                 BufferedWriter out = Files.newBufferedWriter(tmp)) {
+                HistoryExporter exporter = new HistoryExporter(out, format);
+                Iterator<RentalRecord> it = records.iterator();
+                while (it.hasNext()) {
+                    exporter.write(it.next());
+                }
+                written = exporter.getWritten();
+            }
+            // Only once the writer is closed, so the file is complete when it appears
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return written;
+        } catch (IOException | UncheckedIOException e) {
+            metrics.increment(RentalMetrics.Counter.IO_ERRORS);
+            System.out.println("Error exporting rental history: " + e.getMessage());
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                // nothing more to do
+            }
+            return -1;
+        }
+    }
+
+    // The archived and live parts of the history (all of it, or from..to when both are set) as of
+    // one moment: the catalog read lock keeps snapshots out while both parts are opened. Each
+    // storage stream stops at what was archived when opened, and the history instance and size
+    // are fixed here, so records moved by a later snapshot are neither lost nor repeated.
+    private <T> Stream<T> historySnapshot(LocalDate from, LocalDate to, Function<RentalRecord, T> archived,
+            Function<RentalRecord, T> live) {
+        Stream<RentalRecord> archivedPart;
+        Stream<RentalRecord> livePart;
+        catalogLock.readLock().lock();
+        try {
+            RentalHistory history = rentalHistory;
+            livePart = from == null ? history.stream() : history.streamRecordsBetween(from, to);
+            archivedPart = openArchive(from, to);
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+        return Stream.concat(archivedPart.map(archived), livePart.map(live));
+    }
+
+    private Stream<RentalRecord> openArchive(LocalDate from, LocalDate to) {
+        try {
+            return storage.streamArchivedRecords(from, to);
+        } catch (IOException e) {
+            metrics.increment(RentalMetrics.Counter.IO_ERRORS);
+            System.out.println("Error reading archived rental records: " + e.getMessage());
+            return Stream.empty();
+        }
+    }
+
+    private List<RentalStorage.ArchivePart> splitArchive(LocalDate from, LocalDate to, int parts) {
+        try {
+            return storage.splitArchivedRecords(from, to, parts);
+        } catch (IOException e) {
+            metrics.increment(RentalMetrics.Counter.IO_ERRORS);
+            System.out.println("Error reading archived rental records: " + e.getMessage());
+            return List.of();
+        }
+    }
+
+    // Report over the records dated from..to inclusive (null bounds are open), on the common
+    // fork/join pool: the archive split into parts the storage reads independently, and the live
+    // history split by position. See HistoryAnalytics for why the result does not depend on the
+    // split.
+    public HistoryAnalytics.Summary summarizeHistory(LocalDate from, LocalDate to) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        RentalHistory history;
+        List<RentalStorage.ArchivePart> archivedParts;
+        catalogLock.readLock().lock();
+        try {
+            history = rentalHistory;
+            // About four parts per worker, as for the live records
+            archivedParts = splitArchive(from, to, pool.getParallelism() * 4);
+        } finally {
+            catalogLock.readLock().unlock();
         }
-        return null;
+        ForkJoinTask<HistoryAnalytics.Summary> live = pool.submit(() -> HistoryAnalytics.summarize(history, from, to, pool));
+        HistoryAnalytics.Summary summary;
+        try {
+            summary = HistoryAnalytics.summarize(archivedParts, pool);
+        } catch (UncheckedIOException e) {
+            metrics.increment(RentalMetrics.Counter.IO_ERRORS);
+            System.out.println("Error reading archived rental records: " + e.getMessage());
+            summary = new HistoryAnalytics.Summary();
+        }
+        return summary.merge(live.join());
+    }
+
+    public Vehicle findVehicleByPlate(String plate) {
+        if (plate == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        Vehicle vehicle = vehiclesByPlate.get(plate.toUpperCase());
+        metrics.recordSince(RentalMetrics.Timer.LOOKUP, start);
+        return vehicle;
     }
 
     public Customer findCustomerById(String id) {
-        for (Customer c : customers)
-            if (c.getCustomerId() == Integer.parseInt(id))
-                return c;
-        return null;
+        return findCustomerById(Integer.parseInt(id));
     }
 
-    private void saveVehicle(Vehicle vehicle) {
-        try (FileWriter writer = new FileWriter("vehicles.txt", true)) {
-            StringBuilder sb = new StringBuilder();
-
-            if (vehicle instanceof Car) {
-                Car car = (Car) vehicle;
-                sb.append("Car,")
-                        .append(car.getLicensePlate()).append(",")
-                        .append(car.getMake()).append(",")
-                        .append(car.getModel()).append(",")
-                        .append(car.getYear()).append(",")
-                        .append(car.getNumSeats());
-
-            } else if (vehicle instanceof Motorcycle) {
-                Motorcycle moto = (Motorcycle) vehicle;
-                sb.append("Motorcycle,")
-                        .append(moto.getLicensePlate()).append(",")
-                        .append(moto.getMake()).append(",")
-                        .append(moto.getModel()).append(",")
-                        .append(moto.getYear()).append(",")
-                        .append(moto.hasSidecar());
-            } else if (vehicle instanceof Truck) {
-                Truck truck = (Truck) vehicle;
-                sb.append("Truck,")
-                        .append(truck.getLicensePlate()).append(",")
-                        .append(truck.getMake()).append(",")
-                        .append(truck.getModel()).append(",")
-                        .append(truck.getYear()).append(",")
-                        .append(truck.getCargoCapacity());
-            }
-
-            writer.write(sb.toString() + "\n");
+    public Customer findCustomerById(int id) {
+        long start = System.nanoTime();
+        catalogLock.readLock().lock();
+        try {
+            return customersById.get(id);
+        } finally {
+            catalogLock.readLock().unlock();
+            metrics.recordSince(RentalMetrics.Timer.LOOKUP, start);
+        }
+    }
 
+    // Adds the vehicle to the fleet list and plate index; false if the plate is already taken.
+    private boolean registerVehicle(Vehicle vehicle) {
+        String key = vehicle.getLicensePlate() == null ? null : vehicle.getLicensePlate().toUpperCase();
+        if (key == null || vehiclesByPlate.putIfAbsent(key, vehicle) != null) {
+            return false;
+        }
+        int position = vehicles.size();
+        vehicles.add(vehicle);
+        fleetIndex.add(vehicle);
+        vehicle.setStatusListener((v, from, to) -> moveStatus(position, v, from, to));
+        return true;
+    }
+
+    // Called by the vehicle under its own lock.
+    private void moveStatus(int position, Vehicle vehicle, Vehicle.VehicleStatus from, Vehicle.VehicleStatus to) {
+        if (from != null && vehiclesByStatus.get(from).remove(position) != null) {
+            statusCounts.get(from).decrementAndGet();
+        }
+        if (to != null && vehiclesByStatus.get(to).put(position, vehicle) == null) {
+            statusCounts.get(to).incrementAndGet();
+        }
+    }
+
+    private boolean registerCustomer(Customer customer) {
+        if (customersById.containsKey(customer.getCustomerId())) {
+            return false;
+        }
+        customersById.put(customer.getCustomerId(), customer);
+        customers.add(customer);
+        return true;
+    }
+
+    // Flushes and closes the storage. Registered as a shutdown hook so buffered group-commit
+    // batches are not lost when the app exits.
+    public void close() {
+        metrics.stopDump();
+        try {
+            storage.close();
+        } catch (IOException e) {
+            metrics.increment(RentalMetrics.Counter.IO_ERRORS);
+            System.out.println("Error closing storage: " + e.getMessage());
+        }
+        if (metricsFile != null) {
+            metrics.dumpTo(metricsFile);
+        }
+    }
+
+    private void saveVehicle(Vehicle vehicle) {
+        long start = System.nanoTime();
+        try {
+            storage.saveVehicle(vehicle);
+            metrics.recordSince(RentalMetrics.Timer.PERSIST, start);
         } catch (IOException e) {
+            metrics.increment(RentalMetrics.Counter.IO_ERRORS);
             System.out.println("Error saving vehicle: " + e.getMessage());
         }
     }
 
     private void saveCustomer(Customer customer) {
-        try (FileWriter writer = new FileWriter("customers.txt", true)) {
-            String line = customer.getCustomerId() + "," + customer.getCustomerName();
-            writer.write(line + "\n");
+        long start = System.nanoTime();
+        try {
+            storage.saveCustomer(customer);
+            metrics.recordSince(RentalMetrics.Timer.PERSIST, start);
         } catch (IOException e) {
+            metrics.increment(RentalMetrics.Counter.IO_ERRORS);
             System.out.println("Error saving customer: " + e.getMessage());
         }
     }
 
-    private void saveRentalRecord(RentalRecord record) {
-        try (FileWriter writer = new FileWriter("rental_record.txt", true)) {
-            String line = record.getVehicle().getLicensePlate() + "," +
-                    record.getCustomer().getCustomerId() + "," +
-                    record.getRecordDate() + "," +
-                    record.getTotalAmount() + "," +
-                    record.getRecordType();
+    private boolean saveRentalRecord(RentalRecord record) {
+        long start = System.nanoTime();
+        try {
+            storage.saveRentalRecord(record);
+            metrics.recordSince(RentalMetrics.Timer.PERSIST, start);
+        } catch (IOException e) {
+            metrics.increment(RentalMetrics.Counter.IO_ERRORS);
+            System.out.println("Error saving rental record, not applied: " + e.getMessage());
+            return false;
+        }
+        recordsSinceSnapshot.incrementAndGet();
+        return true;
+    }
+
+    // Called with no stripe held; only one thread takes the periodic snapshot.
+    private void snapshotIfDue() {
+        if (recordsSinceSnapshot.get() >= SNAPSHOT_INTERVAL && snapshotRunning.compareAndSet(false, true)) {
+            try {
+                if (recordsSinceSnapshot.get() >= SNAPSHOT_INTERVAL) {
+                    saveSnapshot();
+                }
+            } finally {
+                snapshotRunning.set(false);
+            }
+        }
+    }
+
+    // Persists the vehicle statuses and archives the live records, so the next startup only
+    // replays records written after this point, and forgets reservations that have ended. Runs
+    // automatically every SNAPSHOT_INTERVAL records.
+    public void saveSnapshot() {
+        lockEverything();
+        long start = System.nanoTime();
+        try {
+            storage.checkpoint(vehicles, customers, aggregates.toLines());
+            metrics.recordSince(RentalMetrics.Timer.PERSIST, start);
+            resetHistory();
+            reservations.removeEndedBefore(LocalDate.now());
+        } catch (IOException e) {
+            metrics.increment(RentalMetrics.Counter.IO_ERRORS);
+            System.out.println("Error saving snapshot: " + e.getMessage());
+        } finally {
+            unlockEverything();
+        }
+    }
 
-            writer.write(line + "\n");
+    // Drops duplicate and malformed rows from the stored vehicles and customers, then takes a
+    // snapshot.
+    public void compactData() {
+        lockEverything();
+        long start = System.nanoTime();
+        try {
+            storage.compact(vehicles, customers, aggregates.toLines());
+            metrics.recordSince(RentalMetrics.Timer.PERSIST, start);
+            resetHistory();
+            reservations.removeEndedBefore(LocalDate.now());
+            System.out.println("Compacted data files: " + vehicles.size() + " vehicles, "
+                    + customers.size() + " customers");
         } catch (IOException e) {
-            System.out.println("Error saving rental record: " + e.getMessage());
+            metrics.increment(RentalMetrics.Counter.IO_ERRORS);
+            System.out.println("Error compacting data files: " + e.getMessage());
+        } finally {
+            unlockEverything();
         }
     }
 
+    private void resetHistory() {
+        rentalHistory = newHistory();
+        recordsSinceSnapshot.set(0);
+    }
+
+    private static RentalHistory newHistory() {
+        return COMPACT_HISTORY ? new CompactRentalHistory() : new RentalHistory();
+    }
+
+    private void lockEverything() {
+        catalogLock.writeLock().lock();
+        for (ReentrantLock lock : plateLocks) {
+            lock.lock();
+        }
+    }
+
+    private void unlockEverything() {
+        for (int i = plateLocks.length - 1; i >= 0; i--) {
+            plateLocks[i].unlock();
+        }
+        catalogLock.writeLock().unlock();
+    }
+
     private void loadData() {
-        // Load Vehicles
-        try (BufferedReader reader = new BufferedReader(new FileReader("vehicles.txt"))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length < 6)
-                    continue;
-
-                String type = parts[0];
-                String plate = parts[1];
-                String make = parts[2];
-                String model = parts[3];
-                int year = Integer.parseInt(parts[4]);
-
-                Vehicle vehicle = null;
-                switch (type) {
-                    case "Car":
-                        int seats = Integer.parseInt(parts[5]);
-                        vehicle = new Car(make, model, year, seats);
-                        break;
-                    case "Motorcycle":
-                        boolean sidecar = Boolean.parseBoolean(parts[5]);
-                        vehicle = new Motorcycle(make, model, year, sidecar);
-                        break;
-                    case "Truck":
-                        double capacity = Double.parseDouble(parts[5]);
-                        vehicle = new Truck(make, model, year, capacity);
-                        break;
+        try {
+            storage.load(new RentalStorage.Catalog() {
+                @Override
+                public boolean registerVehicle(Vehicle vehicle) {
+                    return RentalSystem.this.registerVehicle(vehicle);
                 }
 
-                if (vehicle != null) {
-                    vehicle.setLicensePlate(plate);
-                    vehicles.add(vehicle);
+                @Override
+                public boolean registerCustomer(Customer customer) {
+                    return RentalSystem.this.registerCustomer(customer);
                 }
-            }
-        } catch (IOException e) {
-            System.out.println("Error loading vehicles: " + e.getMessage());
-        }
 
-        // Load Customers
-        try (BufferedReader reader = new BufferedReader(new FileReader("customers.txt"))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",", 2);
-                if (parts.length < 2)
-                    continue;
+                @Override
+                public Vehicle findVehicleByPlate(String plate) {
+                    return RentalSystem.this.findVehicleByPlate(plate);
+                }
 
-                int id = Integer.parseInt(parts[0]);
-                String name = parts[1];
-                customers.add(new Customer(id, name));
-            }
-        } catch (IOException e) {
-            System.out.println(":Error loading customers: " + e.getMessage());
-        }
-
-        // Load rental records
-        try (BufferedReader reader = new BufferedReader(new FileReader("rental_record.txt"))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length < 5)
-                    continue;
-
-                String plate = parts[0];
-                int customerId = Integer.parseInt(parts[1]);
-                LocalDate date = LocalDate.parse(parts[2]);
-                double amount = Double.parseDouble(parts[3]);
-                String type = parts[4];
-
-                Vehicle vehicle = findVehicleByPlate(plate);
-                Customer customer = findCustomerById(String.valueOf(customerId));
-                
-                if (vehicle != null && customer != null){
-                    RentalRecord record = new RentalRecord(vehicle, customer, date, amount, type);
-                    rentalHistory.addRecord(record);
-
-                    if(type.equals("RENT")) {
-                        vehicle.setStatus(Vehicle.VehicleStatus.RENTED);
-                    }else if (type.equals("RETURN")){
-                        vehicle.setStatus(Vehicle.VehicleStatus.AVAILABLE);
+                @Override
+                public Customer findCustomerById(int id) {
+                    return RentalSystem.this.findCustomerById(id);
+                }
+
+                @Override
+                public void replayRecord(RentalRecord record) {
+                    RentalSystem.this.replayRecord(record);
+                }
+
+                @Override
+                public void registerReservation(Reservation reservation) {
+                    reservations.add(reservation);
+                }
+
+                @Override
+                public void restoreAggregates(List<String> lines) {
+                    try {
+                        aggregates.restore(lines);
+                        aggregatesRestored = true;
+                    } catch (IllegalArgumentException e) {
+                        System.out.println("Error restoring aggregates, rebuilding them from the archive: "
+                                + e.getMessage());
                     }
                 }
-            }
-        } catch (IOException e){
-            System.out.println("Error loading rental records: " + e.getMessage());
+            });
+        } catch (IOException e) {
+            metrics.increment(RentalMetrics.Counter.IO_ERRORS);
+            System.out.println("Error loading data: " + e.getMessage());
         }
+        seedAggregates();
+    }
 
+    // The totals over the archive come back from the last checkpoint, so only the replayed live
+    // records are added, in journal order. Without saved totals (none written yet, or written
+    // before they were kept) the archive is read through once instead; the next checkpoint saves
+    // them. From here on the aggregates are kept current record by record.
+    private void seedAggregates() {
+        try (Stream<RentalRecord> records = aggregatesRestored ? rentalHistory.stream() : streamRentalHistory()) {
+            records.forEach(aggregates::addRecord);
+        } catch (UncheckedIOException e) {
+            metrics.increment(RentalMetrics.Counter.IO_ERRORS);
+            System.out.println("Error reading archived rental records: " + e.getMessage());
+        }
+    }
+
+    private void replayRecord(RentalRecord record) {
+        rentalHistory.addRecord(record);
+
+        if (record.getRecordType().equals("RENT")) {
+            record.getVehicle().setStatus(Vehicle.VehicleStatus.RENTED);
+        } else if (record.getRecordType().equals("RETURN")) {
+            record.getVehicle().setStatus(Vehicle.VehicleStatus.AVAILABLE);
+        }
     }
-}
\ No newline at end of file
+}
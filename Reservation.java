@@ -0,0 +1,40 @@
+import java.time.LocalDate;
+
+// A booking of one vehicle for a customer over a date range; both ends are inclusive.
+public class Reservation {
+    private final Vehicle vehicle;
+    private final Customer customer;
+    private final LocalDate startDate;
+    private final LocalDate endDate;
+
+    public Reservation(Vehicle vehicle, Customer customer, LocalDate startDate, LocalDate endDate) {
+        this.vehicle = vehicle;
+        this.customer = customer;
+        this.startDate = startDate;
+        this.endDate = endDate;
+    }
+
+    public Vehicle getVehicle() {
+        return vehicle;
+    }
+
+    public Customer getCustomer() {
+        return customer;
+    }
+
+    public LocalDate getStartDate() {
+        return startDate;
+    }
+
+    public LocalDate getEndDate() {
+        return endDate;
+    }
+
+    @Override
+    public String toString() {
+        return "Plate: " + vehicle.getLicensePlate() +
+               " | Customer: " + customer.getCustomerName() +
+               " | From: " + startDate +
+               " | To: " + endDate;
+    }
+}
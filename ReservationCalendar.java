@@ -0,0 +1,121 @@
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Reservations of every vehicle, kept per plate as a sorted set of non-overlapping date ranges
+// keyed by start date. Because the ranges never overlap their end dates are sorted too, so the
+// only one that can clash with from..to is the last one starting on or before to: a conflict
+// check is one floorEntry, O(log reservations of that vehicle).
+public class ReservationCalendar {
+    private final Map<String, TreeMap<LocalDate, Reservation>> byPlate = new ConcurrentHashMap<>();
+
+    // Storage write for a booking change, run with the vehicle's calendar locked
+    public interface Write {
+        void apply(Reservation reservation) throws IOException;
+    }
+
+    // Adds the reservation unless it overlaps another one for the same vehicle; returns that
+    // other reservation, or null once added.
+    public Reservation add(Reservation reservation) {
+        try {
+            return add(reservation, r -> { });
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Like add(reservation), storing it first with save. If save throws, nothing is added. The
+    // calendar stays locked meanwhile, so no overlapping booking can slip in.
+    public Reservation add(Reservation reservation, Write save) throws IOException {
+        TreeMap<LocalDate, Reservation> calendar =
+                byPlate.computeIfAbsent(key(reservation.getVehicle().getLicensePlate()), k -> new TreeMap<>());
+        synchronized (calendar) {
+            Reservation conflict = conflict(calendar, reservation.getStartDate(), reservation.getEndDate());
+            if (conflict == null) {
+                save.apply(reservation);
+                calendar.put(reservation.getStartDate(), reservation);
+            }
+            return conflict;
+        }
+    }
+
+    // Removes the reservation, deleting it from storage first; false if it is not booked. If
+    // delete throws, the reservation stays.
+    public boolean remove(Reservation reservation, Write delete) throws IOException {
+        TreeMap<LocalDate, Reservation> calendar = byPlate.get(key(reservation.getVehicle().getLicensePlate()));
+        if (calendar == null) {
+            return false;
+        }
+        synchronized (calendar) {
+            if (calendar.get(reservation.getStartDate()) != reservation) {
+                return false;
+            }
+            delete.apply(reservation);
+            calendar.remove(reservation.getStartDate());
+            return true;
+        }
+    }
+
+    // Drops every reservation that ended before day; returns how many. Ends are sorted like starts,
+    // so those are the first few of each vehicle.
+    public int removeEndedBefore(LocalDate day) {
+        int removed = 0;
+        for (TreeMap<LocalDate, Reservation> calendar : byPlate.values()) {
+            synchronized (calendar) {
+                Iterator<Reservation> it = calendar.values().iterator();
+                while (it.hasNext() && it.next().getEndDate().isBefore(day)) {
+                    it.remove();
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    // The reservation of the vehicle overlapping from..to, or null if there is none.
+    public Reservation findConflict(String plate, LocalDate from, LocalDate to) {
+        TreeMap<LocalDate, Reservation> calendar = byPlate.get(key(plate));
+        if (calendar == null) {
+            return null;
+        }
+        synchronized (calendar) {
+            return conflict(calendar, from, to);
+        }
+    }
+
+    public boolean isFree(String plate, LocalDate from, LocalDate to) {
+        return findConflict(plate, from, to) == null;
+    }
+
+    public Reservation reservationOn(String plate, LocalDate day) {
+        return findConflict(plate, day, day);
+    }
+
+    // In date order
+    public List<Reservation> getReservations(String plate) {
+        TreeMap<LocalDate, Reservation> calendar = byPlate.get(key(plate));
+        if (calendar == null) {
+            return new ArrayList<>();
+        }
+        synchronized (calendar) {
+            return new ArrayList<>(calendar.values());
+        }
+    }
+
+    private static Reservation conflict(TreeMap<LocalDate, Reservation> calendar, LocalDate from, LocalDate to) {
+        Map.Entry<LocalDate, Reservation> latest = calendar.floorEntry(to);
+        if (latest != null && !latest.getValue().getEndDate().isBefore(from)) {
+            return latest.getValue();
+        }
+        return null;
+    }
+
+    private static String key(String plate) {
+        return plate.toUpperCase();
+    }
+}
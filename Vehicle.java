@@ -1,15 +1,31 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
 public abstract class Vehicle {
+    private static final Pattern PLATE_PATTERN = Pattern.compile("[A-Z]{3}\\d{3}");
+    // Makes and models repeat across the fleet, so every vehicle shares one copy of each name
+    // instead of holding the String its loader parsed. Capped in case of a flood of unique names.
+    private static final int MAX_NAMES = 1 << 16;
+    private static final ConcurrentHashMap<String, String> NAMES = new ConcurrentHashMap<>();
+
     private String licensePlate;
     private String make;
     private String model;
     private int year;
-    private VehicleStatus status;
+    private volatile VehicleStatus status;
+    private StatusListener statusListener;
 
     public enum VehicleStatus { AVAILABLE, RESERVED, RENTED, MAINTENANCE, OUTOFSERVICE }
 
+    // Told about every status change, while the vehicle is locked, so an index kept by the
+    // listener sees the changes of one vehicle in order.
+    public interface StatusListener {
+        void statusChanged(Vehicle vehicle, VehicleStatus from, VehicleStatus to);
+    }
+
     public Vehicle(String make, String model, int year) {
-        this.make = capitalize(make);
-        this.model = capitalize(model);
+        this.make = canonical(capitalize(make));
+        this.model = canonical(capitalize(model));
         this.year = year;
         this.status = VehicleStatus.AVAILABLE;
         this.licensePlate = null;
@@ -19,20 +35,51 @@ public abstract class Vehicle {
         this(null, null, 0);
     }
 
-    private String capitalize(String input){
+    // Returns the input itself when it is already capitalized, as names read back from the data
+    // files are, so the common case allocates nothing.
+    private static String capitalize(String input){
         if(input == null || input.isEmpty()) return null;
-        return input.substring(0,1).toUpperCase() + input.substring(1).toLowerCase();
+        boolean capitalized = Character.isUpperCase(input.charAt(0)) || !Character.isLetter(input.charAt(0));
+        for (int i = 1; capitalized && i < input.length(); i++) {
+            capitalized = !Character.isUpperCase(input.charAt(i));
+        }
+        if (capitalized) return input;
+        char[] chars = input.toLowerCase().toCharArray();
+        chars[0] = Character.toUpperCase(chars[0]);
+        return new String(chars);
+    }
+
+    private static String canonical(String name) {
+        if (name == null) return null;
+        String shared = NAMES.get(name);
+        if (shared != null) return shared;
+        if (NAMES.size() >= MAX_NAMES) return name;
+        shared = NAMES.putIfAbsent(name, name);
+        return shared == null ? name : shared;
     }
 
     public void setLicensePlate(String plate) {
         if (!isValidPlate(plate)){
             throw new IllegalArgumentException("Invalid license plate format. Must be 3 letters followed by 3 numbers.");
         }
-        this.licensePlate = plate == null ? null : plate.toUpperCase();
+        // The pattern only admits upper case, so the plate is stored as given
+        this.licensePlate = plate;
     }
 
-    public void setStatus(VehicleStatus status) {
+    public synchronized void setStatus(VehicleStatus status) {
+        VehicleStatus previous = this.status;
     	this.status = status;
+        if (statusListener != null && previous != status) {
+            statusListener.statusChanged(this, previous, status);
+        }
+    }
+
+    // Replaces the listener and reports the current status to it with from == null.
+    public synchronized void setStatusListener(StatusListener listener) {
+        this.statusListener = listener;
+        if (listener != null) {
+            listener.statusChanged(this, null, status);
+        }
     }
 
     public String getLicensePlate() { return licensePlate; }
@@ -49,9 +96,9 @@ public abstract class Vehicle {
         return "| " + licensePlate + " | " + make + " | " + model + " | " + year + " | " + status + " |";
     }
 
-    private boolean isValidPlate(String plate){
+    public static boolean isValidPlate(String plate){
         if (plate == null || plate.isEmpty()) return false;
-        return plate.matches("[A-Z]{3}\\d{3}");
+        return PLATE_PATTERN.matcher(plate).matches();
     }
 
 }
@@ -1,5 +1,8 @@
 import java.util.Scanner;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
+import java.time.YearMonth;
 
 public class VehicleRentalApp {
     public static void main(String[] args) {
@@ -8,7 +11,7 @@ public class VehicleRentalApp {
 
         while (true) {
             System.out.println(
-                    "\n1: Add Vehicle\n2: Add Customer\n3: Rent Vehicle\n4: Return Vehicle\n5: Display Available Vehicles\n6: Show Rental History\n7: Exit");
+                    "\n1: Add Vehicle\n2: Add Customer\n3: Rent Vehicle\n4: Return Vehicle\n5: Display Available Vehicles\n6: Show Rental History\n7: Exit\n8: Compact Data Files\n9: Import From File\n10: Show Metrics\n11: Reserve Vehicle\n12: Export History\n13: Monthly Report");
             int choice = scanner.nextInt();
             scanner.nextLine();
 
@@ -133,7 +136,17 @@ public class VehicleRentalApp {
                     break;
 
                 case 5:
-                    rentalSystem.displayVehicles(true);
+                    // Enter shows the next page, anything else goes back to the menu
+                    for (int page = 0; ; page++) {
+                        int total = rentalSystem.displayVehicles(true, page, 50);
+                        if ((page + 1) * 50 >= total) {
+                            break;
+                        }
+                        System.out.print("Enter for the next page, q to stop: ");
+                        if (!scanner.nextLine().isEmpty()) {
+                            break;
+                        }
+                    }
                     break;
 
                 case 6:
@@ -141,6 +154,66 @@ public class VehicleRentalApp {
                     rentalSystem.displayRentalHistory();
                     break;
 
+                case 8:
+                    rentalSystem.compactData();
+                    break;
+
+                case 9:
+                    System.out.println("  1: Vehicles\n  2: Customers");
+                    int importType = scanner.nextInt();
+                    scanner.nextLine();
+                    System.out.print("Enter file path: ");
+                    Path importFile = Paths.get(scanner.nextLine().trim());
+
+                    ImportReport report = importType == 1 ? rentalSystem.importVehicles(importFile)
+                            : rentalSystem.importCustomers(importFile);
+                    System.out.println(report);
+                    for (ImportReport.Rejection rejection : report.getRejections()) {
+                        System.out.println("  " + rejection);
+                    }
+                    break;
+
+                case 10:
+                    System.out.print(rentalSystem.getMetrics().report());
+                    break;
+
+                case 11:
+                    System.out.print("Enter license plate: ");
+                    Vehicle vehicleToReserve = rentalSystem.findVehicleByPlate(scanner.nextLine().toUpperCase());
+                    System.out.print("Enter customer ID: ");
+                    Customer customerToReserve = rentalSystem.findCustomerById(scanner.nextLine());
+                    System.out.print("Enter start date (yyyy-mm-dd): ");
+                    LocalDate reserveFrom = LocalDate.parse(scanner.nextLine().trim());
+                    System.out.print("Enter end date (yyyy-mm-dd): ");
+                    LocalDate reserveTo = LocalDate.parse(scanner.nextLine().trim());
+
+                    if (vehicleToReserve == null || customerToReserve == null) {
+                        System.out.println("Vehicle or customer not found.");
+                        break;
+                    }
+
+                    rentalSystem.reserveVehicle(vehicleToReserve, customerToReserve, reserveFrom, reserveTo);
+                    break;
+
+                case 12:
+                    System.out.print("Enter export file (.csv or .jsonl): ");
+                    Path exportFile = Paths.get(scanner.nextLine().trim());
+                    long exported = rentalSystem.exportHistory(exportFile, HistoryExporter.Format.forFile(exportFile));
+                    if (exported >= 0) {
+                        System.out.println("Exported " + exported + " records to " + exportFile);
+                    }
+                    break;
+
+                case 13:
+                    System.out.print("Enter month (yyyy-mm): ");
+                    YearMonth month = YearMonth.parse(scanner.nextLine().trim());
+                    HistoryAnalytics.Summary summary = rentalSystem.summarizeHistory(month.atDay(1), month.atEndOfMonth());
+                    System.out.println(summary);
+                    System.out.println("Top customers: " + summary.getTopCustomers(5));
+                    System.out.println("Busiest vehicles: " + summary.getBusiestPlates(5));
+                    System.out.println("RENT/RETURN imbalance: " + summary.getImbalances());
+                    break;
+
                 case 0:
                     scanner.close();
                     System.exit(0);
@@ -1,8 +1,41 @@
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Modifier;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class VehicleRentalTest {
 
@@ -91,4 +124,1038 @@ public class VehicleRentalTest {
         assertNotNull(instance, "Singleton instance should not be null");
     }
 
+    @Test
+    public void testLookupByPlateAndCustomerId() {
+        RentalSystem rentalSystem = new RentalSystem(new InMemoryStorage());
+        rentalSystem.setQuiet(true);
+        Vehicle vehicle = new Car("Honda", "Fit", 2020, 5);
+        vehicle.setLicensePlate("IDX101");
+        Customer customer = new Customer(5150, "Lookup Tester");
+
+        rentalSystem.addVehicle(vehicle);
+        rentalSystem.addCustomer(customer);
+
+        assertSame(vehicle, rentalSystem.findVehicleByPlate("idx101"));
+        assertSame(customer, rentalSystem.findCustomerById(5150));
+        assertSame(customer, rentalSystem.findCustomerById("5150"));
+        assertNull(rentalSystem.findVehicleByPlate("ZZZ000"));
+
+        Vehicle duplicate = new Car("Ford", "Focus", 2021, 5);
+        duplicate.setLicensePlate("IDX101");
+        assertFalse(rentalSystem.addVehicle(duplicate), "Duplicate plate should be rejected");
+        assertFalse(rentalSystem.addCustomer(new Customer(5150, "Someone Else")), "Duplicate id should be rejected");
+    }
+
+    @Test
+    public void testConcurrentRentalsNeverDoubleBook() throws Exception {
+        RentalSystem rentalSystem = new RentalSystem(new InMemoryStorage());
+        rentalSystem.setQuiet(true);
+        Vehicle candidate = new Car("Dodge", "Caravan", 2022, 7);
+        candidate.setLicensePlate("STR001");
+        rentalSystem.addVehicle(candidate);
+        Vehicle vehicle = rentalSystem.findVehicleByPlate("STR001");
+        Customer customer = new Customer(7001, "Stress Tester");
+        rentalSystem.addCustomer(customer);
+        vehicle.setStatus(Vehicle.VehicleStatus.AVAILABLE);
+
+        int threads = 64;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < 20; round++) {
+                assertEquals(1, raceOnce(pool, threads,
+                        () -> rentalSystem.rentVehicle(vehicle, customer, LocalDate.now(), 10.0)),
+                        "Exactly one concurrent rent should succeed");
+                assertEquals(Vehicle.VehicleStatus.RENTED, vehicle.getStatus());
+
+                assertEquals(1, raceOnce(pool, threads,
+                        () -> rentalSystem.returnVehicle(vehicle, customer, LocalDate.now(), 0.0)),
+                        "Exactly one concurrent return should succeed");
+                assertEquals(Vehicle.VehicleStatus.AVAILABLE, vehicle.getStatus());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRentalHistoryIndexes() {
+        RentalHistory history = new RentalHistory();
+        Vehicle car = new Car("Toyota", "Yaris", 2020, 5);
+        car.setLicensePlate("HIS001");
+        Vehicle bike = new Motorcycle("Honda", "Rebel", 2021, false);
+        bike.setLicensePlate("HIS002");
+        Customer anne = new Customer(1, "Anne Smith");
+        Customer joe = new Customer(2, "Joe Annely");
+        LocalDate day = LocalDate.of(2025, 4, 8);
+
+        history.addRecord(new RentalRecord(car, anne, day, 100.0, "RENT"));
+        history.addRecord(new RentalRecord(bike, joe, day, 60.0, "RENT"));
+        history.addRecord(new RentalRecord(car, anne, day.plusDays(2), 10.0, "RETURN"));
+        history.addRecord(new RentalRecord(bike, joe, day.plusDays(3), 0.0, "RETURN"));
+
+        assertEquals(2, history.getRentalRecordsByVehicle("his001").size());
+        assertEquals(2, history.getRentalRecordsByCustomerId(2).size());
+        assertEquals(4, history.getRentalRecordsByCustomer("ann").size(), "Prefix matches both customers");
+        assertEquals(2, history.getRentalRecordsByCustomer("anne smith").size());
+        assertEquals(0, history.getRentalRecordsByCustomer("smith joe").size());
+
+        List<RentalRecord> merged = history.getRentalRecordsByCustomer("ann");
+        assertEquals("RENT", merged.get(0).getRecordType());
+        assertSame(bike, merged.get(1).getVehicle(), "Results stay in insertion order");
+    }
+
+    @Test
+    public void testCompactRentalHistoryMatchesRentalHistory() {
+        RentalHistory plain = new RentalHistory();
+        RentalHistory compact = new CompactRentalHistory();
+        Vehicle car = new Car("Toyota", "Yaris", 2020, 5);
+        car.setLicensePlate("CMP001");
+        Customer customer = new Customer(42, "Compact Customer");
+
+        for (int i = 0; i < 100; i++) {
+            RentalRecord record = new RentalRecord(car, customer, LocalDate.of(2025, 1, 1).plusDays(i),
+                    i + 0.25, i % 2 == 0 ? "RENT" : "RETURN");
+            plain.addRecord(record);
+            compact.addRecord(record);
+        }
+
+        assertEquals(plain.size(), compact.size());
+        List<RentalRecord> expected = plain.getRentalRecordsByVehicle("CMP001");
+        List<RentalRecord> actual = compact.getRentalRecordsByVehicle("CMP001");
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).toString(), actual.get(i).toString());
+        }
+        assertEquals(10, compact.getRentalRecordsBetween(LocalDate.of(2025, 1, 1), LocalDate.of(2025, 1, 10)).size());
+    }
+
+    @Test
+    public void testInMemoryStorageSurvivesRestart() {
+        InMemoryStorage storage = new InMemoryStorage();
+        RentalSystem first = new RentalSystem(storage);
+        Vehicle car = new Car("Toyota", "Prius", 2022, 5);
+        car.setLicensePlate("MEM001");
+        Vehicle van = new Car("Ford", "Transit", 2021, 8);
+        van.setLicensePlate("MEM002");
+        Customer customer = new Customer(900, "Memory Tester");
+        first.addVehicle(car);
+        first.addVehicle(van);
+        first.addCustomer(customer);
+
+        first.rentVehicle(car, customer, LocalDate.of(2025, 3, 1), 80.0);
+        first.saveSnapshot();
+        first.rentVehicle(van, customer, LocalDate.of(2025, 3, 2), 120.0);
+        first.close();
+
+        RentalSystem second = new RentalSystem(storage);
+        assertEquals(Vehicle.VehicleStatus.RENTED, second.findVehicleByPlate("MEM001").getStatus());
+        assertEquals(Vehicle.VehicleStatus.RENTED, second.findVehicleByPlate("MEM002").getStatus());
+        assertSame(customer, second.findCustomerById(900));
+        assertEquals(2, second.getRentalRecordsBetween(LocalDate.of(2025, 3, 1), LocalDate.of(2025, 3, 31)).size(),
+                "Archived and live records are both found");
+    }
+
+    @Test
+    public void testAvailabilityIndexFollowsStatus() {
+        RentalSystem rentalSystem = new RentalSystem(new InMemoryStorage());
+        Vehicle first = new Car("Toyota", "Corolla", 2020, 5);
+        first.setLicensePlate("AVL001");
+        Vehicle second = new Truck("Volvo", "FH", 2019, 12.5);
+        second.setLicensePlate("AVL002");
+        Customer customer = new Customer(31, "Index Tester");
+        rentalSystem.addVehicle(first);
+        rentalSystem.addVehicle(second);
+        rentalSystem.addCustomer(customer);
+
+        rentalSystem.rentVehicle(first, customer, LocalDate.now(), 50.0);
+        assertEquals(List.of(second), rentalSystem.getVehiclesByStatus(Vehicle.VehicleStatus.AVAILABLE));
+        assertEquals(List.of(first), rentalSystem.getVehiclesByStatus(Vehicle.VehicleStatus.RENTED));
+
+        second.setStatus(Vehicle.VehicleStatus.MAINTENANCE);
+        rentalSystem.returnVehicle(first, customer, LocalDate.now(), 0.0);
+        assertEquals(List.of(first), rentalSystem.getVehiclesByStatus(Vehicle.VehicleStatus.AVAILABLE));
+        assertEquals(List.of(second), rentalSystem.getVehiclesByStatus(Vehicle.VehicleStatus.MAINTENANCE));
+        assertEquals(1, rentalSystem.displayVehicles(true, 0, 10));
+    }
+
+    @Test
+    public void testFleetQueryCombinesIndexes() {
+        RentalSystem rentalSystem = new RentalSystem(new InMemoryStorage());
+        Vehicle smallTruck = new Truck("Isuzu", "NPR", 2021, 3.5);
+        smallTruck.setLicensePlate("FQT001");
+        Vehicle bigTruck = new Truck("Volvo", "FH", 2022, 18.0);
+        bigTruck.setLicensePlate("FQT002");
+        Vehicle oldTruck = new Truck("Volvo", "FL", 2015, 12.0);
+        oldTruck.setLicensePlate("FQT003");
+        Vehicle van = new Car("Ford", "Transit", 2020, 9);
+        van.setLicensePlate("FQC001");
+        Vehicle sportCar = new SportCar("Porsche", "911", 2023, 2, 450, true);
+        sportCar.setLicensePlate("FQC002");
+        for (Vehicle v : List.of(smallTruck, bigTruck, oldTruck, van, sportCar)) {
+            rentalSystem.addVehicle(v);
+        }
+        Customer customer = new Customer(77, "Query Tester");
+        rentalSystem.addCustomer(customer);
+
+        FleetQuery availableTrucks = new FleetQuery().type(Truck.class).minCargo(5).minYear(2020)
+                .status(Vehicle.VehicleStatus.AVAILABLE);
+        assertEquals(List.of(bigTruck), rentalSystem.findVehicles(availableTrucks));
+        rentalSystem.rentVehicle(bigTruck, customer, LocalDate.now(), 300.0);
+        assertTrue(rentalSystem.findVehicles(availableTrucks).isEmpty());
+
+        assertEquals(List.of(van), rentalSystem.findVehicles(new FleetQuery().minSeats(7)));
+        assertEquals(List.of(van, sportCar), rentalSystem.findVehicles(new FleetQuery().type(Car.class)));
+        assertEquals(List.of(sportCar), rentalSystem.findVehicles(new FleetQuery().turbo(true).minHorsepower(400)));
+        assertEquals(List.of(bigTruck, oldTruck), rentalSystem.findVehicles(new FleetQuery().make("volvo")));
+        assertTrue(rentalSystem.findVehicles(new FleetQuery().make("Tesla")).isEmpty());
+    }
+
+    @Test
+    public void testBulkImportReportsRejectedRows() {
+        RentalSystem rentalSystem = new RentalSystem(new InMemoryStorage());
+        ImportReport vehicles = rentalSystem.importVehicles(Stream.of(
+                "Car,IMP001,Toyota,Corolla,2020,5",
+                "Truck,IMP002,Volvo,FH,2021,18.0",
+                "Car,IMP001,Honda,Civic,2019,5",
+                "Car,imp-03,Honda,Civic,2019,5",
+                "",
+                "Boat,IMP004,Yamaha,242X,2022,8",
+                "Motorcycle,IMP005,Honda,Rebel,2021,maybe"));
+        assertEquals(2, vehicles.getImported());
+        assertEquals(4, vehicles.getRejections().size());
+        assertEquals(3, vehicles.getRejections().get(0).getLineNumber());
+        assertTrue(vehicles.getRejections().get(0).getReason().contains("duplicate"));
+        assertEquals(7, vehicles.getRejections().get(3).getLineNumber());
+        assertNotNull(rentalSystem.findVehicleByPlate("IMP002"));
+
+        ImportReport customers = rentalSystem.importCustomers(Stream.of("1,Ann Lee", "x,Bad Id", "1,Ann Again", "2,"));
+        assertEquals(1, customers.getImported());
+        assertEquals(3, customers.getRejections().size());
+    }
+
+    @Test
+    public void testBatchRentIsAllOrNothing() {
+        InMemoryStorage storage = new InMemoryStorage();
+        RentalSystem rentalSystem = new RentalSystem(storage);
+        List<Vehicle> vans = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Vehicle van = new Car("Ford", "Transit", 2022, 9);
+            van.setLicensePlate("VAN00" + i);
+            rentalSystem.addVehicle(van);
+            vans.add(van);
+        }
+        Customer corporate = new Customer(500, "Acme Corp");
+        Customer walkIn = new Customer(501, "Walk In");
+        rentalSystem.addCustomer(corporate);
+        rentalSystem.addCustomer(walkIn);
+        LocalDate day = LocalDate.of(2025, 9, 1);
+
+        rentalSystem.rentVehicle(vans.get(3), walkIn, day, 90.0);
+        assertFalse(rentalSystem.rentVehicles(vans, corporate, day, 80.0), "One van is already rented");
+        assertEquals(4, rentalSystem.getVehiclesByStatus(Vehicle.VehicleStatus.AVAILABLE).size());
+        assertEquals(1, rentalSystem.getRentalRecordsBetween(day, day).size(), "Nothing journaled for the batch");
+
+        rentalSystem.returnVehicle(vans.get(3), walkIn, day, 0.0);
+        assertTrue(rentalSystem.rentVehicles(vans, corporate, day, 80.0));
+        assertEquals(5, rentalSystem.getVehiclesByStatus(Vehicle.VehicleStatus.RENTED).size());
+        assertTrue(rentalSystem.returnVehicles(vans, corporate, day.plusDays(7), 0.0));
+        assertEquals(12, rentalSystem.getRentalRecordsBetween(day, day.plusDays(7)).size());
+        assertFalse(rentalSystem.returnVehicles(List.of(vans.get(0), vans.get(0)), corporate, day, 0.0));
+    }
+
+    @Test
+    public void testMetricsCountOutcomes() {
+        RentalSystem rentalSystem = new RentalSystem(new InMemoryStorage());
+        rentalSystem.setQuiet(true);
+        Vehicle bike = new Motorcycle("Honda", "CB500", 2023, false);
+        bike.setLicensePlate("MOT123");
+        Customer rider = new Customer(600, "Rider");
+        rentalSystem.addVehicle(bike);
+        rentalSystem.addVehicle(bike);
+        rentalSystem.addCustomer(rider);
+        LocalDate day = LocalDate.of(2025, 10, 1);
+
+        rentalSystem.rentVehicle(bike, rider, day, 50.0);
+        rentalSystem.rentVehicle(bike, rider, day, 50.0);
+        rentalSystem.returnVehicle(bike, rider, day.plusDays(1), 0.0);
+        rentalSystem.findVehicleByPlate("mot123");
+
+        RentalMetrics metrics = rentalSystem.getMetrics();
+        assertEquals(1, metrics.get(RentalMetrics.Counter.RENTS));
+        assertEquals(1, metrics.get(RentalMetrics.Counter.RETURNS));
+        assertEquals(1, metrics.get(RentalMetrics.Counter.REJECTED_TRANSITIONS));
+        assertEquals(1, metrics.get(RentalMetrics.Counter.REJECTED_ADDS));
+        assertEquals(3, metrics.getHistogram(RentalMetrics.Timer.RENT_RETURN).getCount());
+        assertEquals(4, metrics.getHistogram(RentalMetrics.Timer.PERSIST).getCount());
+        assertEquals(1, metrics.getHistogram(RentalMetrics.Timer.LOOKUP).getCount());
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(500_000, histogram.getPercentile(50), 500_000 / 16.0);
+        assertEquals(990_000, histogram.getPercentile(99), 990_000 / 16.0);
+        assertEquals(1_000_000, histogram.getMax());
+    }
+
+    @Test
+    public void testServerLineProtocol() throws Exception {
+        RentalSystem rentalSystem = new RentalSystem(new InMemoryStorage());
+        rentalSystem.setQuiet(true);
+        try (RentalServer server = new RentalServer(rentalSystem, 0)) {
+            server.start();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                 PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+                out.println("ADD_VEHICLE Car,SRV100,Kia,Rio,2021,5");
+                assertEquals("OK", in.readLine());
+                out.println("ADD_CUSTOMER 700,Kiosk Customer");
+                assertEquals("OK", in.readLine());
+                out.println("RENT SRV100 700 2025-11-01 60");
+                assertEquals("OK", in.readLine());
+                out.println("RENT SRV100 700 2025-11-01 60");
+                assertEquals("ERR not available", in.readLine());
+                out.println("LIST RENTED");
+                assertEquals("OK 1", in.readLine());
+                assertTrue(in.readLine().contains("SRV100"));
+                out.println("LIST RENTED 1");
+                assertEquals("OK 0", in.readLine());
+                out.println("LIST ALL 0 1");
+                assertEquals("OK 1", in.readLine());
+                in.readLine();
+                out.println("HISTORY 2025-11-01 2025-11-01 0 5000");
+                assertTrue(in.readLine().startsWith("ERR page size"));
+                out.println("HISTORY 2025-11-01 2025-11-01");
+                assertEquals("OK 1", in.readLine());
+                assertTrue(in.readLine().contains("SRV100"));
+                out.println("FLY SRV100");
+                assertTrue(in.readLine().startsWith("ERR unknown command"));
+            }
+        }
+    }
+
+    @Test
+    public void testAsyncStorageDrainsOnClose() throws Exception {
+        InMemoryStorage inner = new InMemoryStorage();
+        AsyncStorage async = new AsyncStorage(inner, 4, 16, RentalStorage.Ack.MEMORY);
+        RentalSystem rentalSystem = new RentalSystem(async);
+        rentalSystem.setQuiet(true);
+        Customer customer = new Customer(800, "Queue Customer");
+        rentalSystem.addCustomer(customer);
+        List<Vehicle> cars = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Vehicle car = new Car("Skoda", "Octavia", 2024, 5);
+            car.setLicensePlate("ASY00" + i);
+            rentalSystem.addVehicle(car);
+            cars.add(car);
+        }
+        LocalDate day = LocalDate.of(2025, 12, 1);
+        for (Vehicle car : cars) {
+            assertTrue(rentalSystem.rentVehicle(car, customer, day, 40.0));
+        }
+        rentalSystem.whenSaved(RentalStorage.Ack.FSYNCED).get();
+        assertEquals(10, async.getRecordsWritten());
+        assertTrue(rentalSystem.returnVehicles(cars, customer, day.plusDays(2), 0.0));
+        rentalSystem.close();
+        assertEquals(20, async.getRecordsWritten(), "close drains the queue");
+        assertEquals(0, async.getWriteErrors());
+
+        RentalSystem restarted = new RentalSystem(inner);
+        assertEquals(20, restarted.getRentalRecordsBetween(day, day.plusDays(2)).size());
+        assertEquals(10, restarted.getVehiclesByStatus(Vehicle.VehicleStatus.AVAILABLE).size());
+    }
+
+    @Test
+    public void testAsyncStorageGivesUpOnAFailingDelegate() throws Exception {
+        AtomicInteger failures = new AtomicInteger();
+        InMemoryStorage inner = new InMemoryStorage() {
+            @Override
+            public synchronized void saveRentalRecords(List<RentalRecord> records) {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("journal unavailable");
+                }
+                super.saveRentalRecords(records);
+            }
+        };
+        AsyncStorage async = new AsyncStorage(inner, 16, 16, RentalStorage.Ack.WRITTEN);
+        RentalSystem rentalSystem = new RentalSystem(async);
+        rentalSystem.setQuiet(true);
+        Customer customer = new Customer(810, "Retry Customer");
+        rentalSystem.addCustomer(customer);
+        Vehicle first = new Car("Skoda", "Fabia", 2024, 5);
+        first.setLicensePlate("RTY001");
+        Vehicle second = new Car("Skoda", "Fabia", 2024, 5);
+        second.setLicensePlate("RTY002");
+        rentalSystem.addVehicle(first);
+        rentalSystem.addVehicle(second);
+        LocalDate day = LocalDate.of(2025, 12, 1);
+
+        // Passing failures are retried and the batch is stored once
+        failures.set(2);
+        assertTrue(rentalSystem.rentVehicles(List.of(first), customer, day, 40.0));
+        assertEquals(1, async.getRecordsWritten());
+        assertEquals(2, async.getWriteErrors());
+
+        // A delegate that keeps failing: the saver gets the error instead of waiting forever
+        failures.set(Integer.MAX_VALUE);
+        assertFalse(rentalSystem.rentVehicles(List.of(second), customer, day, 40.0));
+        assertEquals(Vehicle.VehicleStatus.AVAILABLE, second.getStatus());
+        assertEquals(1, async.getRecordsLost());
+        // A single rent or return is not applied either
+        assertFalse(rentalSystem.rentVehicle(second, customer, day, 40.0));
+        assertEquals(Vehicle.VehicleStatus.AVAILABLE, second.getStatus());
+        assertFalse(rentalSystem.returnVehicle(first, customer, day.plusDays(1), 0.0));
+        assertEquals(Vehicle.VehicleStatus.RENTED, first.getStatus());
+        assertEquals(3, async.getRecordsLost());
+        assertEquals(1, rentalSystem.getRentalRecordsBetween(day, day.plusDays(1)).size());
+
+        // ... and the writer goes on with the next batch
+        failures.set(0);
+        assertTrue(rentalSystem.rentVehicles(List.of(second), customer, day, 40.0));
+        assertTrue(rentalSystem.returnVehicle(first, customer, day.plusDays(1), 0.0));
+        rentalSystem.close();
+        assertEquals(3, async.getRecordsWritten());
+        RentalSystem restarted = new RentalSystem(inner);
+        assertEquals(3, restarted.getRentalRecordsBetween(day, day.plusDays(1)).size());
+        assertEquals(Vehicle.VehicleStatus.AVAILABLE, restarted.findVehicleByPlate("RTY001").getStatus());
+        assertEquals(Vehicle.VehicleStatus.RENTED, restarted.findVehicleByPlate("RTY002").getStatus());
+    }
+
+    @Test
+    public void testAsyncStorageFailsSavesWhenTheDelegateDoesNotLoad() throws Exception {
+        // No driver takes this URL, so the delegate's load throws
+        AsyncStorage async = new AsyncStorage(new JdbcStorage("jdbc:rental-missing:test", 16), 16, 16,
+                RentalStorage.Ack.WRITTEN);
+        RentalSystem rentalSystem = new RentalSystem(async);
+        rentalSystem.setQuiet(true);
+        Customer customer = new Customer(820, "Load Customer");
+        rentalSystem.addCustomer(customer);
+        Vehicle car = new Car("Skoda", "Scala", 2024, 5);
+        car.setLicensePlate("LDF001");
+        rentalSystem.addVehicle(car);
+
+        // The save fails straight away rather than waiting for a writer, holding the stripe
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> rented = executor.submit(() -> rentalSystem.rentVehicle(car, customer,
+                    LocalDate.of(2025, 12, 1), 40.0));
+            assertFalse(rented.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(Vehicle.VehicleStatus.AVAILABLE, car.getStatus());
+        assertThrows(IOException.class, () -> async.saveRentalRecord(
+                new RentalRecord(car, customer, LocalDate.of(2025, 12, 1), 40.0, "RENT")));
+        assertEquals(0, async.getRecordsWritten());
+        rentalSystem.close();
+    }
+
+    @Test
+    public void testCustomerAndVehicleHistoryCoverTheArchive() throws Exception {
+        Path dir = Files.createTempDirectory("rental-lookup");
+        for (RentalStorage storage : List.of(new InMemoryStorage(), new FlatFileStorage(dir))) {
+            RentalSystem rentalSystem = new RentalSystem(storage);
+            rentalSystem.setQuiet(true);
+            List<Vehicle> cars = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Vehicle car = new Car("Fiat", "Panda", 2021, 5);
+                car.setLicensePlate("LKP00" + i);
+                rentalSystem.addVehicle(car);
+                cars.add(car);
+            }
+            List<Customer> customers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Customer customer = new Customer(930 + i, "Lookup " + i);
+                rentalSystem.addCustomer(customer);
+                customers.add(customer);
+            }
+            LocalDate day = LocalDate.of(2025, 1, 20);
+            for (int i = 0; i < 60; i++) {
+                Vehicle car = cars.get(i % 3);
+                Customer customer = customers.get(i % 3 == 0 ? 0 : i % 2 + 1);
+                rentalSystem.rentVehicle(car, customer, day.plusDays(i), 30.0 + i);
+                rentalSystem.returnVehicle(car, customer, day.plusDays(i + 1), 1.0);
+                // Archived in three rotations, so the index is extended after it is first built
+                if (i == 20 || i == 40) {
+                    assertLookupsMatchHistory(rentalSystem, cars, customers);
+                    rentalSystem.saveSnapshot();
+                }
+            }
+            assertLookupsMatchHistory(rentalSystem, cars, customers);
+            rentalSystem.close();
+
+            if (storage instanceof FlatFileStorage) {
+                storage = new FlatFileStorage(dir);
+            }
+            RentalSystem restarted = new RentalSystem(storage);
+            assertEquals(40, restarted.getRentalRecordsByVehicle("lkp000").size());
+            assertEquals(0, restarted.getRentalRecordsByVehicle("ZZZ999").size());
+            assertEquals(0, restarted.getRentalRecordsByCustomerId(999).size());
+            restarted.close();
+        }
+    }
+
+    private static void assertLookupsMatchHistory(RentalSystem rentalSystem, List<Vehicle> cars,
+            List<Customer> customers) {
+        // Archived records are read back as new objects, so they are compared as text
+        List<RentalRecord> all;
+        try (Stream<RentalRecord> records = rentalSystem.streamRentalHistory()) {
+            all = records.collect(Collectors.toList());
+        }
+        for (Customer customer : customers) {
+            assertEquals(all.stream().filter(r -> r.getCustomer() == customer).map(RentalRecord::toString)
+                            .collect(Collectors.toList()),
+                    rentalSystem.getRentalRecordsByCustomerId(customer.getCustomerId()).stream()
+                            .map(RentalRecord::toString).collect(Collectors.toList()));
+        }
+        for (Vehicle car : cars) {
+            assertEquals(all.stream().filter(r -> r.getVehicle() == car).map(RentalRecord::toString)
+                            .collect(Collectors.toList()),
+                    rentalSystem.getRentalRecordsByVehicle(car.getLicensePlate().toLowerCase()).stream()
+                            .map(RentalRecord::toString).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testAggregatesSurviveSnapshotAndRestart() throws Exception {
+        Path dir = Files.createTempDirectory("rental-aggregates");
+        for (RentalStorage storage : List.of(new InMemoryStorage(), new FlatFileStorage(dir))) {
+            RentalSystem rentalSystem = new RentalSystem(storage);
+            rentalSystem.setQuiet(true);
+            Vehicle car = new Car("Mazda", "3", 2022, 5);
+            car.setLicensePlate("AGG001");
+            Vehicle truck = new Truck("MAN", "TGL", 2020, 7.5);
+            truck.setLicensePlate("AGG002");
+            Customer alice = new Customer(900, "Alice");
+            Customer bob = new Customer(901, "Bob");
+            rentalSystem.addVehicle(car);
+            rentalSystem.addVehicle(truck);
+            rentalSystem.addCustomer(alice);
+            rentalSystem.addCustomer(bob);
+            LocalDate start = LocalDate.of(2025, 3, 1);
+
+            rentalSystem.rentVehicle(car, alice, start, 100.0);
+            rentalSystem.returnVehicle(car, alice, start.plusDays(4), 20.0);
+            rentalSystem.saveSnapshot();
+            rentalSystem.rentVehicle(car, bob, start.plusDays(5), 50.0);
+            rentalSystem.rentVehicle(truck, bob, start.plusDays(5), 200.0);
+            rentalSystem.returnVehicle(truck, bob, start.plusDays(5), 0.0);
+            rentalSystem.close();
+
+            if (storage instanceof FlatFileStorage) {
+                // The totals over the archive come from the snapshot: startup does not read the archive
+                Files.delete(dir.resolve(RecordSegments.segmentFor(YearMonth.of(2025, 3))));
+                storage = new FlatFileStorage(dir);
+            }
+            RentalSystem restarted = new RentalSystem(storage);
+            for (RentalAggregates aggregates : List.of(rentalSystem.getAggregates(), restarted.getAggregates())) {
+                assertEquals(370.0, aggregates.getTotalRevenue(), 1e-9);
+                assertEquals(170.0, aggregates.getRevenueByVehicle("agg001"), 1e-9);
+                assertEquals(250.0, aggregates.getRevenueByCustomer(901), 1e-9);
+                assertEquals(250.0, aggregates.getRevenueOn(start.plusDays(5)), 1e-9);
+                assertEquals(120.0, aggregates.getRevenueBetween(start, start.plusDays(4)), 1e-9);
+                // 4 days for the first rental, the second still out: 4 more by the 10th day
+                assertEquals(8, aggregates.getRentedDays("AGG001", start.plusDays(9)));
+                assertEquals(0.8, aggregates.getUtilization("AGG001", start.plusDays(9)), 1e-9);
+                assertEquals(1, aggregates.getRentedDays("AGG002", start.plusDays(9)));
+            }
+            restarted.close();
+        }
+    }
+
+    @Test
+    public void testReservationsBlockOverlapsAndOtherRenters() {
+        InMemoryStorage storage = new InMemoryStorage();
+        RentalSystem rentalSystem = new RentalSystem(storage);
+        rentalSystem.setQuiet(true);
+        Vehicle truck = new Truck("Volvo", "FL", 2021, 12.0);
+        truck.setLicensePlate("RES001");
+        Vehicle otherTruck = new Truck("Volvo", "FL", 2021, 12.0);
+        otherTruck.setLicensePlate("RES002");
+        Vehicle car = new Car("Fiat", "500", 2020, 4);
+        car.setLicensePlate("RES003");
+        Customer mover = new Customer(950, "Mover");
+        Customer walkIn = new Customer(951, "Walk In");
+        for (Vehicle v : List.of(truck, otherTruck, car)) {
+            rentalSystem.addVehicle(v);
+        }
+        rentalSystem.addCustomer(mover);
+        rentalSystem.addCustomer(walkIn);
+        LocalDate june = LocalDate.now().plusMonths(1);
+
+        Reservation booking = rentalSystem.reserveVehicle(truck, mover, june.plusDays(10), june.plusDays(14));
+        assertNotNull(booking);
+        assertNull(rentalSystem.reserveVehicle(truck, walkIn, june.plusDays(14), june.plusDays(20)), "Overlaps by a day");
+        assertNotNull(rentalSystem.reserveVehicle(truck, walkIn, june.plusDays(15), june.plusDays(20)));
+
+        FleetQuery trucks = new FleetQuery().type(Truck.class);
+        assertEquals(List.of(otherTruck), rentalSystem.findFreeVehicles(trucks, june.plusDays(12), june.plusDays(16)));
+        assertEquals(2, rentalSystem.findFreeVehicles(trucks, june, june.plusDays(9)).size());
+
+        assertFalse(rentalSystem.rentVehicle(truck, walkIn, june.plusDays(11), 300.0), "Booked by someone else");
+        assertTrue(rentalSystem.rentVehicle(truck, mover, june.plusDays(10), 300.0));
+
+        RentalSystem restarted = new RentalSystem(storage);
+        assertEquals(2, restarted.getReservations("res001").size());
+        assertTrue(restarted.cancelReservation(restarted.getReservations("RES001").get(0)));
+        assertEquals(1, new RentalSystem(storage).getReservations("RES001").size());
+    }
+
+    @Test
+    public void testEndedReservationsArePruned() throws Exception {
+        Path dir = Files.createTempDirectory("rental-reservations");
+        RentalSystem rentalSystem = new RentalSystem(new FlatFileStorage(dir));
+        rentalSystem.setQuiet(true);
+        Vehicle car = new Car("Ford", "Focus", 2022, 5);
+        car.setLicensePlate("RES010");
+        Customer customer = new Customer(955, "Past Booker");
+        rentalSystem.addVehicle(car);
+        rentalSystem.addCustomer(customer);
+        LocalDate today = LocalDate.now();
+        assertNotNull(rentalSystem.reserveVehicle(car, customer, today.minusDays(10), today.minusDays(8)));
+        assertNotNull(rentalSystem.reserveVehicle(car, customer, today.minusDays(5), today.minusDays(1)));
+        assertNotNull(rentalSystem.reserveVehicle(car, customer, today, today.plusDays(2)));
+        rentalSystem.close();
+
+        // The load keeps only the booking still running and rewrites the file to match
+        RentalSystem restarted = new RentalSystem(new FlatFileStorage(dir));
+        restarted.setQuiet(true);
+        assertEquals(1, restarted.getReservations("RES010").size());
+        assertEquals(1, Files.readAllLines(dir.resolve("reservations.txt")).size());
+
+        // A snapshot forgets bookings that ended since the load
+        Vehicle booked = restarted.findVehicleByPlate("RES010");
+        Customer booker = restarted.findCustomerById(955);
+        assertNotNull(restarted.reserveVehicle(booked, booker, today.minusDays(4), today.minusDays(3)));
+        assertEquals(2, restarted.getReservations("RES010").size());
+        restarted.saveSnapshot();
+        assertEquals(today, restarted.getReservations("RES010").get(0).getStartDate());
+        assertEquals(1, restarted.getReservations("RES010").size());
+        restarted.close();
+    }
+
+    @Test
+    public void testSharedNamesAndStatusVersionedRows() {
+        Vehicle first = new Car("TOYOTA", "corolla", 2020, 5);
+        Vehicle second = new Car(new String("Toyota"), new String("Corolla"), 2021, 5);
+        assertEquals("Toyota", first.getMake());
+        assertSame(first.getMake(), second.getMake(), "Makes are shared");
+        assertSame(first.getModel(), second.getModel());
+
+        RentalSystem rentalSystem = new RentalSystem(new InMemoryStorage());
+        rentalSystem.setQuiet(true);
+        first.setLicensePlate("ROW001");
+        rentalSystem.addVehicle(first);
+        Customer customer = new Customer(990, "Kiosk");
+        rentalSystem.addCustomer(customer);
+        String available = rentalSystem.renderVehicle(first);
+        assertSame(available, rentalSystem.renderVehicle(first));
+        rentalSystem.rentVehicle(first, customer, LocalDate.of(2026, 2, 1), 10.0);
+        assertEquals(first.getInfo(), rentalSystem.renderVehicle(first));
+        assertTrue(rentalSystem.renderVehicle(first).contains("RENTED"));
+    }
+
+    @Test
+    public void testHistoryStreamsAcrossSnapshotAndExports() throws Exception {
+        Path dir = Files.createTempDirectory("rental-history");
+        RentalSystem rentalSystem = new RentalSystem(new FlatFileStorage(dir));
+        rentalSystem.setQuiet(true);
+        Vehicle car = new Car("Skoda", "Octavia", 2023, 5);
+        car.setLicensePlate("STR001");
+        Customer customer = new Customer(950, "Doe, \"Jay\"");
+        rentalSystem.addVehicle(car);
+        rentalSystem.addCustomer(customer);
+        LocalDate day = LocalDate.of(2025, 1, 30);
+
+        for (int i = 0; i < 300; i++) {
+            rentalSystem.rentVehicle(car, customer, day.plusDays(i), 10.0);
+            rentalSystem.returnVehicle(car, customer, day.plusDays(i), i);
+            if (i == 150) {
+                rentalSystem.saveSnapshot();
+            }
+        }
+
+        try (Stream<RentalRecord> records = rentalSystem.streamRentalHistory()) {
+            // Opened before the snapshot: sees every record once, nothing added after
+            rentalSystem.saveSnapshot();
+            rentalSystem.rentVehicle(car, customer, day.plusDays(400), 10.0);
+            List<RentalRecord> all = new ArrayList<>();
+            records.forEach(all::add);
+            assertEquals(600, all.size());
+            for (int i = 0; i < 300; i++) {
+                assertEquals(day.plusDays(i), all.get(2 * i).getRecordDate());
+                assertEquals("RETURN", all.get(2 * i + 1).getRecordType());
+            }
+        }
+
+        List<RentalRecord> page = rentalSystem.getRentalHistoryPage(598, 50);
+        assertEquals(3, page.size());
+        assertEquals(day.plusDays(400), page.get(2).getRecordDate());
+        assertEquals(4, rentalSystem.getRentalRecordsBetween(day.plusDays(1), day.plusDays(2)).size());
+
+        Path csv = dir.resolve("history.csv");
+        assertEquals(601, rentalSystem.exportHistory(csv, HistoryExporter.Format.forFile(csv)));
+        List<String> csvLines = Files.readAllLines(csv);
+        assertEquals(602, csvLines.size());
+        assertEquals("RENT,STR001,950,\"Doe, \"\"Jay\"\"\",2025-01-30,10.0", csvLines.get(1));
+
+        Path jsonl = dir.resolve("history.jsonl");
+        assertEquals(601, rentalSystem.exportHistory(jsonl, HistoryExporter.Format.forFile(jsonl)));
+        assertEquals("{\"type\":\"RETURN\",\"plate\":\"STR001\",\"customerId\":950,\"customerName\":"
+                + "\"Doe, \\\"Jay\\\"\",\"date\":\"2025-01-31\",\"amount\":1.0}", Files.readAllLines(jsonl).get(3));
+        rentalSystem.close();
+    }
+
+    @Test
+    public void testParallelAnalyticsMatchSequential() throws Exception {
+        RentalHistory history = new RentalHistory();
+        List<Vehicle> cars = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            Vehicle car = new Car("Fiat", "Panda", 2021, 4);
+            car.setLicensePlate(String.format("ANA%03d", i));
+            cars.add(car);
+        }
+        Random random = new Random(24);
+        LocalDate start = LocalDate.of(2025, 1, 1);
+        for (int i = 0; i < 5 * HistoryAnalytics.MIN_LEAF; i++) {
+            Customer customer = new Customer(random.nextInt(500), "Customer");
+            history.addRecord(new RentalRecord(cars.get(random.nextInt(cars.size())), customer,
+                    start.plusDays(random.nextInt(90)), random.nextInt(100000) / 100.0,
+                    random.nextInt(3) == 0 ? "RETURN" : "RENT"));
+        }
+
+        LocalDate from = LocalDate.of(2025, 2, 1);
+        LocalDate to = LocalDate.of(2025, 2, 28);
+        HistoryAnalytics.Summary sequential = HistoryAnalytics.summarize(history, from, to, null);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            HistoryAnalytics.Summary parallel = HistoryAnalytics.summarize(history, from, to, pool);
+            assertEquals(sequential.getRecords(), parallel.getRecords());
+            assertEquals(sequential.getTotalRevenue(), parallel.getTotalRevenue(), 0.0);
+            assertEquals(sequential.getTopCustomers(10), parallel.getTopCustomers(10));
+            assertEquals(sequential.getBusiestPlates(40), parallel.getBusiestPlates(40));
+            assertEquals(sequential.getImbalances(), parallel.getImbalances());
+            HistoryAnalytics.Summary everything = HistoryAnalytics.summarize(history, null, null, pool);
+            assertEquals(history.size(), everything.getRecords());
+            assertEquals(HistoryAnalytics.summarize(history, null, null, null).getTopCustomers(20),
+                    everything.getTopCustomers(20));
+        } finally {
+            pool.shutdown();
+        }
+
+        RentalHistory.Snapshot snapshot = history.snapshot();
+        history.addRecord(new RentalRecord(cars.get(0), new Customer(1, "Late"), from, 5.0, "RENT"));
+        assertEquals(history.size() - 1, snapshot.size());
+        assertEquals(sequential.getRecords() + 1, HistoryAnalytics.summarize(history, from, to, null).getRecords());
+
+        long inFebruary = history.getRentalRecordsBetween(from, to).size() - 1;
+        assertEquals(inFebruary, sequential.getRecords());
+        assertEquals(10, sequential.getTopCustomers(10).size());
+        int best = sequential.getTopCustomers(1).keySet().iterator().next();
+        for (int id = 0; id < 500; id++) {
+            assertTrue(sequential.getSpend(id) <= sequential.getSpend(best));
+        }
+
+        // Archived records are summarized from the storage's parts, here one per month segment
+        Path dir = Files.createTempDirectory("rental-analytics");
+        RentalSystem rentalSystem = new RentalSystem(new FlatFileStorage(dir));
+        rentalSystem.setQuiet(true);
+        for (Vehicle car : cars.subList(0, 10)) {
+            rentalSystem.addVehicle(car);
+        }
+        for (int id = 0; id < 20; id++) {
+            rentalSystem.addCustomer(new Customer(id, "Customer " + id));
+        }
+        for (int day = 0; day < 120; day++) {
+            Vehicle car = cars.get(day % 10);
+            Customer customer = rentalSystem.findCustomerById(random.nextInt(20));
+            rentalSystem.rentVehicle(car, customer, start.plusDays(day), random.nextInt(10000) / 100.0);
+            rentalSystem.returnVehicle(car, customer, start.plusDays(day + 1), random.nextInt(1000) / 100.0);
+            if (day == 100) {
+                rentalSystem.saveSnapshot();
+            }
+        }
+        assertEquals(4, new RecordSegments(dir).list().size());
+        HistoryAnalytics.Summary expected = new HistoryAnalytics.Summary();
+        try (Stream<RentalRecord> records = rentalSystem.streamRentalRecordsBetween(from, to.plusMonths(2))) {
+            records.forEach(expected::add);
+        }
+        HistoryAnalytics.Summary report = rentalSystem.summarizeHistory(from, to.plusMonths(2));
+        assertEquals(expected.getRecords(), report.getRecords());
+        assertEquals(expected.getTotalRevenue(), report.getTotalRevenue(), 0.0);
+        assertEquals(expected.getTopCustomers(20), report.getTopCustomers(20));
+        assertEquals(expected.getImbalances(), report.getImbalances());
+        rentalSystem.close();
+    }
+
+    @Test
+    public void testTornJournalTailIsCutOnRestart() throws Exception {
+        Path dir = Files.createTempDirectory("rental-journal");
+        RentalSystem rentalSystem = new RentalSystem(new FlatFileStorage(dir));
+        rentalSystem.setQuiet(true);
+        Vehicle car = new Car("Opel", "Astra", 2022, 5);
+        car.setLicensePlate("JRN001");
+        Customer customer = new Customer(960, "Journal");
+        rentalSystem.addVehicle(car);
+        rentalSystem.addCustomer(customer);
+        LocalDate day = LocalDate.of(2025, 4, 1);
+        rentalSystem.rentVehicle(car, customer, day, 80.0);
+        rentalSystem.returnVehicle(car, customer, day.plusDays(2), 5.0);
+        rentalSystem.rentVehicle(car, customer, day.plusDays(3), 80.0);
+        rentalSystem.close();
+
+        // A crash halfway through writing the next entry
+        Path journal = dir.resolve("rental_record.txt");
+        long goodLength = Files.size(journal);
+        byte[] next = FramedJournal.encode("JRN001,960,2025-04-06,0.0,RETURN");
+        Files.write(journal, Arrays.copyOf(next, next.length / 2), StandardOpenOption.APPEND);
+
+        RentalSystem restarted = new RentalSystem(new FlatFileStorage(dir));
+        restarted.setQuiet(true);
+        assertEquals(goodLength, Files.size(journal));
+        assertEquals(next.length / 2, Files.size(dir.resolve("rental_record.txt.torn")));
+        assertEquals(3, restarted.getRentalHistoryPage(0, 10).size());
+        Vehicle reloaded = restarted.findVehicleByPlate("JRN001");
+        assertEquals(Vehicle.VehicleStatus.RENTED, reloaded.getStatus());
+        assertTrue(restarted.returnVehicle(reloaded, restarted.findCustomerById(960), day.plusDays(5), 0.0));
+        restarted.close();
+
+        // A second crash keeps what the first one saved
+        byte[] later = FramedJournal.encode("JRN001,960,2025-04-09,80.0,RENT");
+        Files.write(journal, Arrays.copyOf(later, 5), StandardOpenOption.APPEND);
+        assertEquals(4, new RentalSystem(new FlatFileStorage(dir)).getRentalHistoryPage(0, 10).size());
+        assertEquals(next.length / 2 + 5, Files.size(dir.resolve("rental_record.txt.torn")));
+
+        // A plain CSV journal written before framing: a partial last line is cut, not parsed, and
+        // the rest is rewritten as framed entries
+        Path csvDir = Files.createTempDirectory("rental-journal-csv");
+        Files.copy(dir.resolve("vehicles.txt"), csvDir.resolve("vehicles.txt"));
+        Files.copy(dir.resolve("customers.txt"), csvDir.resolve("customers.txt"));
+        Files.write(csvDir.resolve("rental_record.txt"),
+                "JRN001,960,2025-04-01,80.0,RENT\nJRN001,960,2025-04-0".getBytes());
+        RentalSystem fromCsv = new RentalSystem(new FlatFileStorage(csvDir));
+        assertEquals(1, fromCsv.getRentalHistoryPage(0, 10).size());
+        Path converted = csvDir.resolve("rental_record.txt");
+        assertTrue(FramedJournal.isFramed(converted));
+        List<String> lines = new ArrayList<>();
+        FramedJournal.read(converted, lines::add);
+        assertEquals(List.of("JRN001,960,2025-04-01,80.0,RENT"), lines);
+        fromCsv.returnVehicle(fromCsv.findVehicleByPlate("JRN001"), fromCsv.findCustomerById(960),
+                LocalDate.of(2025, 4, 2), 0.0);
+        fromCsv.close();
+        assertEquals(2, new RentalSystem(new FlatFileStorage(csvDir)).getRentalHistoryPage(0, 10).size());
+    }
+
+    @Test
+    public void testJdbcStorageKeepsBatchedRecordsWhenAWriteFails() throws Exception {
+        JdbcStorage unopened = new JdbcStorage("jdbc:no-such-driver:rental", 10);
+        assertThrows(IOException.class, () -> unopened.load(null));
+        Vehicle stray = new Car("Seat", "Leon", 2023, 5);
+        stray.setLicensePlate("JDB000");
+        assertThrows(IOException.class, () -> unopened.saveVehicle(stray));
+
+        Path dir = Files.createTempDirectory("rental-jdbc");
+        String url = jdbcTestUrl(dir);
+        assumeTrue(url != null, "no H2 or SQLite driver on the classpath");
+        JdbcStorage storage = new JdbcStorage(url, 100);
+        RentalSystem rentalSystem = new RentalSystem(storage);
+        rentalSystem.setQuiet(true);
+        Vehicle car = new Car("Seat", "Ibiza", 2023, 5);
+        car.setLicensePlate("JDB001");
+        Customer customer = new Customer(970, "Batched");
+        rentalSystem.addVehicle(car);
+        rentalSystem.addCustomer(customer);
+        LocalDate day = LocalDate.of(2025, 5, 1);
+        rentalSystem.rentVehicle(car, customer, day, 60.0);
+        rentalSystem.returnVehicle(car, customer, day.plusDays(1), 0.0);
+
+        // Both records are still in the open batch; neither the duplicate key nor the record too
+        // long for its column may roll them back, and the rejected record's seq is used again
+        assertThrows(IOException.class, () -> storage.saveVehicle(car));
+        RentalRecord tooLong = new RentalRecord(car, customer, day, 1.0, "RENT".repeat(5));
+        IOException lost = assertThrows(IOException.class, () -> storage.saveRentalRecords(List.of(tooLong)));
+        assertTrue(lost.getMessage().startsWith("1 rental records not stored"));
+        rentalSystem.rentVehicle(car, customer, day.plusDays(2), 60.0);
+        rentalSystem.close();
+
+        RentalSystem restarted = new RentalSystem(new JdbcStorage(url, 100));
+        assertEquals(3, restarted.getRentalHistoryPage(0, 10).size());
+        assertEquals(Vehicle.VehicleStatus.RENTED, restarted.findVehicleByPlate("JDB001").getStatus());
+        restarted.close();
+    }
+
+    @Test
+    public void testAppendWriterKeepsItsBufferWhenTheChannelFails() throws Exception {
+        Path file = Files.createTempFile("append-writer", ".txt");
+        FailingChannel channel = new FailingChannel(file);
+        AppendWriter writer = new AppendWriter(file, channel, AppendWriter.Durability.GROUP_COMMIT, 100, 0);
+        writer.append("one");
+        writer.append("two");
+        // The flush gets "one" out and fails; "two" stays buffered ahead of what comes next
+        channel.budget = 4;
+        assertThrows(IOException.class, writer::flush);
+        writer.append("three");
+        writer.flush();
+        assertEquals("one\ntwo\nthree\n", Files.readString(file));
+        writer.close();
+
+        // A record whose write fails part way is cut off again, so retrying it stores it once
+        FailingChannel perEventChannel = new FailingChannel(file);
+        AppendWriter perEvent = new AppendWriter(file, perEventChannel, AppendWriter.Durability.FLUSH_PER_EVENT, 1, 0);
+        perEventChannel.budget = 2;
+        assertThrows(IOException.class, () -> perEvent.append("four"));
+        perEvent.append("four");
+        assertEquals("one\ntwo\nthree\nfour\n", Files.readString(file));
+        perEvent.close();
+    }
+
+    // Writes budget more bytes and then fails the next write, once; -1 for no limit
+    private static class FailingChannel extends FileChannel {
+        private final FileChannel delegate;
+        int budget = -1;
+
+        FailingChannel(Path file) throws IOException {
+            delegate = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (budget == 0) {
+                budget = -1;
+                throw new IOException("No space left on device");
+            }
+            if (budget < 0 || src.remaining() <= budget) {
+                int written = delegate.write(src);
+                budget = budget < 0 ? -1 : budget - written;
+                return written;
+            }
+            int limit = src.limit();
+            src.limit(src.position() + budget);
+            try {
+                int written = delegate.write(src);
+                budget -= written;
+                return written;
+            } finally {
+                src.limit(limit);
+            }
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            long written = 0;
+            for (int i = offset; i < offset + length; i++) {
+                written += write(srcs[i]);
+            }
+            return written;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return delegate.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return delegate.read(dsts, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return delegate.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return delegate.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            delegate.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return delegate.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return delegate.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return delegate.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return delegate.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return delegate.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return delegate.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return delegate.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            delegate.close();
+        }
+    }
+
+    private static int raceOnce(ExecutorService pool, int threads, Callable<Boolean> action) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                return action.call();
+            }));
+        }
+        start.countDown();
+
+        int successes = 0;
+        for (Future<Boolean> result : results) {
+            if (result.get()) {
+                successes++;
+            }
+        }
+        return successes;
+    }
+
+    // A database in dir for whichever of H2 and SQLite has its driver on the classpath, else null
+    private static String jdbcTestUrl(Path dir) {
+        for (String url : new String[] { "jdbc:h2:" + dir.resolve("rental"), "jdbc:sqlite:" + dir.resolve("rental.db") }) {
+            try {
+                DriverManager.getConnection(url).close();
+                return url;
+            } catch (SQLException e) {
+                // No driver for this one
+            }
+        }
+        return null;
+    }
 }
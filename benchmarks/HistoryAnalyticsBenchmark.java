@@ -0,0 +1,228 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+// Month-end report over a synthetic history, sequential and on fork/join pools of several sizes.
+//
+//   javac -d out *.java benchmarks/*.java
+//   java -Xmx4g -cp out HistoryAnalyticsBenchmark [records] [poolSizes] [archivedRecords]
+//       e.g. 20000000 1,2,4,8 20000000
+//
+// The history is a CompactRentalHistory (about 21 bytes a record) spread over a year, 10,000
+// plates and 200,000 customers; the report covers one month. The same report is then run over a
+// flat file archive of that shape, written to a temp directory, from the parts FlatFileStorage
+// splits its month segments into. Each configuration is warmed up and then timed as the best of
+// several runs. Every parallel result is checked against the sequential one, and speedup is
+// relative to the sequential run. Speedup cannot exceed the cores the JVM actually gets, printed
+// first.
+public class HistoryAnalyticsBenchmark {
+    private static final int RUNS = 5;
+    private static final PrintStream OUT = System.out;
+
+    public static void main(String[] args) throws IOException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 20_000_000;
+        String[] poolSizes = (args.length > 1 ? args[1] : "1,2,4,8").split(",");
+        int archivedRecords = args.length > 2 ? Integer.parseInt(args[2]) : records;
+
+        RentalHistory history = generate(records);
+        LocalDate from = LocalDate.of(2025, 6, 1);
+        LocalDate to = LocalDate.of(2025, 6, 30);
+        OUT.printf("%d records, %d available processors%n", history.size(), Runtime.getRuntime().availableProcessors());
+
+        HistoryAnalytics.Summary expected = HistoryAnalytics.summarize(history, from, to, null);
+        double sequential = time(history, from, to, null, expected);
+        OUT.printf("%-12s %10.0f ms%n", "sequential", sequential);
+        for (String size : poolSizes) {
+            ForkJoinPool pool = new ForkJoinPool(Integer.parseInt(size.trim()));
+            double millis = time(history, from, to, pool, expected);
+            OUT.printf("%-12s %10.0f ms %8.2fx%n", "pool " + size.trim(), millis, sequential / millis);
+            pool.shutdown();
+        }
+        OUT.println(expected);
+
+        archive(archivedRecords, from, to, poolSizes);
+    }
+
+    private static void archive(int records, LocalDate from, LocalDate to, String[] poolSizes) throws IOException {
+        Path dir = Files.createTempDirectory("analytics-archive");
+        writeArchive(dir, records);
+        FlatFileStorage storage = new FlatFileStorage(dir);
+        storage.load(new MapCatalog());
+        OUT.printf("%nArchive: %d records in %s%n", records, dir);
+
+        HistoryAnalytics.Summary expected = HistoryAnalytics.summarize(storage.splitArchivedRecords(from, to, 1), null);
+        double sequential = Double.MAX_VALUE;
+        for (int run = 0; run < RUNS + 1; run++) {
+            long start = System.nanoTime();
+            HistoryAnalytics.summarize(storage.splitArchivedRecords(from, to, 1), null);
+            if (run > 0) {
+                sequential = Math.min(sequential, (System.nanoTime() - start) / 1e6);
+            }
+        }
+        OUT.printf("%-12s %10.0f ms%n", "sequential", sequential);
+        for (String size : poolSizes) {
+            ForkJoinPool pool = new ForkJoinPool(Integer.parseInt(size.trim()));
+            double best = Double.MAX_VALUE;
+            for (int run = 0; run < RUNS + 1; run++) {
+                long start = System.nanoTime();
+                HistoryAnalytics.Summary summary = HistoryAnalytics.summarize(
+                        storage.splitArchivedRecords(from, to, pool.getParallelism() * 4), pool);
+                double millis = (System.nanoTime() - start) / 1e6;
+                if (!sameReport(expected, summary)) {
+                    throw new IllegalStateException("archive result differs from the sequential run");
+                }
+                if (run > 0) {
+                    best = Math.min(best, millis);
+                }
+            }
+            OUT.printf("%-12s %10.0f ms %8.2fx%n", "pool " + size.trim(), best, sequential / best);
+            pool.shutdown();
+        }
+        OUT.println(expected);
+
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    // vehicles.txt, customers.txt and one archive segment per month, as a rotation would leave them
+    private static void writeArchive(Path dir, int records) throws IOException {
+        Random random = new Random(42);
+        try (BufferedWriter out = Files.newBufferedWriter(dir.resolve("vehicles.txt"))) {
+            for (int i = 0; i < 10_000; i++) {
+                out.write("Car," + plate(i) + ",Toyota,Corolla,2020,5\n");
+            }
+        }
+        try (BufferedWriter out = Files.newBufferedWriter(dir.resolve("customers.txt"))) {
+            for (int i = 0; i < 200_000; i++) {
+                out.write(i + ",Customer " + i + "\n");
+            }
+        }
+        Files.createFile(dir.resolve("rental_record.txt"));
+        Map<YearMonth, BufferedWriter> segments = new HashMap<>();
+        LocalDate start = LocalDate.of(2025, 1, 1);
+        try {
+            for (int i = 0; i < records; i++) {
+                LocalDate day = start.plusDays(random.nextInt(365));
+                BufferedWriter out = segments.get(YearMonth.from(day));
+                if (out == null) {
+                    out = Files.newBufferedWriter(dir.resolve(RecordSegments.segmentFor(YearMonth.from(day))));
+                    segments.put(YearMonth.from(day), out);
+                }
+                out.write(plate(random.nextInt(10_000)) + "," + random.nextInt(200_000) + "," + day + ","
+                        + random.nextInt(50_000) / 100.0 + "," + (random.nextInt(2) == 0 ? "RENT" : "RETURN") + "\n");
+            }
+        } finally {
+            for (BufferedWriter out : segments.values()) {
+                out.close();
+            }
+        }
+    }
+
+    private static String plate(int i) {
+        return String.format("%c%c%c%03d", 'A' + i / 26000 % 26, 'A' + i / 1000 % 26, 'A', i % 1000);
+    }
+
+    // Just enough of a RentalSystem for the storage to resolve archived lines
+    private static class MapCatalog implements RentalStorage.Catalog {
+        private final Map<String, Vehicle> vehicles = new HashMap<>();
+        private final IntHashMap<Customer> customers = new IntHashMap<>();
+
+        @Override
+        public boolean registerVehicle(Vehicle vehicle) {
+            return vehicles.putIfAbsent(vehicle.getLicensePlate(), vehicle) == null;
+        }
+
+        @Override
+        public synchronized boolean registerCustomer(Customer customer) {
+            if (customers.get(customer.getCustomerId()) != null) {
+                return false;
+            }
+            customers.put(customer.getCustomerId(), customer);
+            return true;
+        }
+
+        @Override
+        public Vehicle findVehicleByPlate(String plate) {
+            return vehicles.get(plate.toUpperCase());
+        }
+
+        @Override
+        public Customer findCustomerById(int id) {
+            return customers.get(id);
+        }
+
+        @Override
+        public void replayRecord(RentalRecord record) {
+        }
+
+        @Override
+        public void registerReservation(Reservation reservation) {
+        }
+
+        @Override
+        public void restoreAggregates(List<String> lines) {
+        }
+    }
+
+    private static double time(RentalHistory history, LocalDate from, LocalDate to, ForkJoinPool pool,
+            HistoryAnalytics.Summary expected) {
+        double best = Double.MAX_VALUE;
+        for (int run = 0; run < RUNS + 1; run++) {
+            long start = System.nanoTime();
+            HistoryAnalytics.Summary summary = HistoryAnalytics.summarize(history, from, to, pool);
+            double millis = (System.nanoTime() - start) / 1e6;
+            if (!sameReport(expected, summary)) {
+                throw new IllegalStateException("result differs from the sequential run");
+            }
+            // The first run is warm-up
+            if (run > 0) {
+                best = Math.min(best, millis);
+            }
+        }
+        return best;
+    }
+
+    private static boolean sameReport(HistoryAnalytics.Summary a, HistoryAnalytics.Summary b) {
+        return a.getRecords() == b.getRecords() && a.getTotalRevenue() == b.getTotalRevenue()
+                && a.getTopCustomers(20).equals(b.getTopCustomers(20))
+                && a.getBusiestPlates(20).equals(b.getBusiestPlates(20))
+                && a.getImbalances().equals(b.getImbalances());
+    }
+
+    private static RentalHistory generate(int records) {
+        Random random = new Random(42);
+        List<Vehicle> vehicles = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            Vehicle car = new Car("Toyota", "Corolla", 2020, 5);
+            car.setLicensePlate(plate(i));
+            vehicles.add(car);
+        }
+        List<Customer> customers = new ArrayList<>();
+        for (int i = 0; i < 200_000; i++) {
+            customers.add(new Customer(i, "Customer " + i));
+        }
+        RentalHistory history = new CompactRentalHistory();
+        LocalDate start = LocalDate.of(2025, 1, 1);
+        for (int i = 0; i < records; i++) {
+            history.addRecord(new RentalRecord(vehicles.get(random.nextInt(vehicles.size())),
+                    customers.get(random.nextInt(customers.size())), start.plusDays(random.nextInt(365)),
+                    random.nextInt(50_000) / 100.0, random.nextInt(2) == 0 ? "RENT" : "RETURN"));
+        }
+        return history;
+    }
+}
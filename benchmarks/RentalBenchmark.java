@@ -0,0 +1,191 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// Micro benchmarks for the core RentalSystem operations on generated data in temp directories.
+//
+//   javac -d out *.java benchmarks/*.java
+//   java -cp out RentalBenchmark [fleetSizes] [historySizes]     e.g. 1000,100000 10000,1000000
+//
+// Each benchmark is warmed up, then timed over several fixed-length iterations; the report is
+// average time per operation. Console output from RentalSystem is discarded while measuring.
+public class RentalBenchmark {
+    private static final long WARMUP_MILLIS = 1000;
+    private static final long ITERATION_MILLIS = 1000;
+    private static final int ITERATIONS = 3;
+    private static final int CUSTOMERS_PER_VEHICLE = 10;
+
+    private static final PrintStream OUT = System.out;
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws IOException {
+        int[] fleetSizes = sizes(args.length > 0 ? args[0] : "1000,100000");
+        int[] historySizes = sizes(args.length > 1 ? args[1] : "10000,1000000");
+
+        OUT.printf("%-40s %10s %10s %14s%n", "Benchmark", "fleet", "history", "ns/op");
+        for (int fleet : fleetSizes) {
+            for (int history : historySizes) {
+                run(fleet, history);
+            }
+        }
+    }
+
+    private static void run(int fleet, int history) throws IOException {
+        Path dir = Files.createTempDirectory("rental-bench");
+        try {
+            generate(dir, fleet, history);
+            Random random = new Random(42);
+            String[] plates = new String[fleet];
+            for (int i = 0; i < fleet; i++) {
+                plates[i] = plate(i);
+            }
+            int customers = fleet * CUSTOMERS_PER_VEHICLE;
+
+            report("loadData", fleet, history, measureOnce(() -> new RentalSystem(new FlatFileStorage(dir)).close()));
+
+            RentalSystem system = quietly(() -> new RentalSystem(new FlatFileStorage(dir)));
+            try {
+                report("findVehicleByPlate", fleet, history, measure(() ->
+                        sink = system.findVehicleByPlate(plates[random.nextInt(fleet)])));
+                report("findCustomerById", fleet, history, measure(() ->
+                        sink = system.findCustomerById(random.nextInt(customers))));
+
+                // Every generated vehicle ends up returned, so each pair below is a valid round trip
+                Customer customer = system.findCustomerById(0);
+                LocalDate today = LocalDate.now();
+                report("rentVehicle+returnVehicle", fleet, history, measure(() -> {
+                    Vehicle vehicle = system.findVehicleByPlate(plates[random.nextInt(fleet)]);
+                    system.rentVehicle(vehicle, customer, today, 100.0);
+                    system.returnVehicle(vehicle, customer, today, 0.0);
+                }));
+
+                RentalHistory rentalHistory = new RentalHistory();
+                for (RentalRecord record : system.getRentalRecordsBetween(LocalDate.MIN, LocalDate.MAX)) {
+                    rentalHistory.addRecord(record);
+                }
+                report("history.byCustomerId", fleet, history, measure(() ->
+                        sink = rentalHistory.getRentalRecordsByCustomerId(random.nextInt(customers))));
+                report("history.byVehicle", fleet, history, measure(() ->
+                        sink = rentalHistory.getRentalRecordsByVehicle(plates[random.nextInt(fleet)])));
+                report("history.byCustomerName", fleet, history, measure(() ->
+                        sink = rentalHistory.getRentalRecordsByCustomer("customer " + random.nextInt(customers))));
+                LocalDate start = LocalDate.of(2024, 1, 1);
+                report("history.between (7 days)", fleet, history, measure(() -> {
+                    LocalDate from = start.plusDays(random.nextInt(365));
+                    sink = rentalHistory.getRentalRecordsBetween(from, from.plusDays(6));
+                }));
+            } finally {
+                system.close();
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    // fleet cars, 10 customers per car, and a history of alternating RENT/RETURN pairs
+    private static void generate(Path dir, int fleet, int history) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(dir.resolve("vehicles.txt"))) {
+            for (int i = 0; i < fleet; i++) {
+                writer.write("Car," + plate(i) + ",Toyota,Corolla," + (2000 + i % 25) + "," + (2 + i % 7) + "\n");
+            }
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(dir.resolve("customers.txt"))) {
+            for (int i = 0; i < fleet * CUSTOMERS_PER_VEHICLE; i++) {
+                writer.write(i + ",Customer " + i + "\n");
+            }
+        }
+        Random random = new Random(7);
+        LocalDate start = LocalDate.of(2024, 1, 1);
+        try (BufferedWriter writer = Files.newBufferedWriter(dir.resolve("rental_record.txt"))) {
+            for (int i = 0; i < history / 2; i++) {
+                String plate = plate(i % fleet);
+                int customer = random.nextInt(fleet * CUSTOMERS_PER_VEHICLE);
+                LocalDate date = start.plusDays(random.nextInt(365));
+                writer.write(plate + "," + customer + "," + date + "," + (50 + random.nextInt(200)) + ".0,RENT\n");
+                writer.write(plate + "," + customer + "," + date.plusDays(3) + ",0.0,RETURN\n");
+            }
+        }
+    }
+
+    // Time-boxed: warm up, then average several fixed-length iterations.
+    private static double measure(Runnable operation) {
+        return quietly(() -> {
+            runFor(WARMUP_MILLIS, operation);
+            double total = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                total += runFor(ITERATION_MILLIS, operation);
+            }
+            return total / ITERATIONS;
+        });
+    }
+
+    // For operations too slow to loop, such as a full load: one warm-up run, then the mean of runs.
+    private static double measureOnce(Runnable operation) {
+        return quietly(() -> {
+            operation.run();
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                operation.run();
+            }
+            return (System.nanoTime() - start) / (double) ITERATIONS;
+        });
+    }
+
+    private static double runFor(long millis, Runnable operation) {
+        long deadline = System.nanoTime() + millis * 1_000_000;
+        long start = System.nanoTime();
+        long ops = 0;
+        long now;
+        do {
+            for (int i = 0; i < 64; i++) {
+                operation.run();
+            }
+            ops += 64;
+            now = System.nanoTime();
+        } while (now < deadline);
+        return (now - start) / (double) ops;
+    }
+
+    private interface Action<T> {
+        T run() throws IOException;
+    }
+
+    private static <T> T quietly(Action<T> action) {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            return action.run();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            System.setOut(OUT);
+        }
+    }
+
+    private static void report(String name, int fleet, int history, double nanosPerOp) {
+        OUT.printf("%-40s %10d %10d %14.1f%n", name, fleet, history, nanosPerOp);
+    }
+
+    private static String plate(int i) {
+        int letters = i / 1000;
+        return String.format("%c%c%c%03d", 'A' + letters / 676 % 26, 'A' + letters / 26 % 26, 'A' + letters % 26, i % 1000);
+    }
+
+    private static int[] sizes(String list) {
+        return Stream.of(list.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+// Load test for RentalServer: many concurrent clients against an in-memory RentalSystem.
+//
+//   javac -d out *.java benchmarks/*.java
+//   java -cp out RentalServerBenchmark [clients] [seconds] [commandFile]     e.g. 2000 10
+//
+// Without a command file every client owns one car and rents and returns it in a loop. With one,
+// every client replays the file's lines (one protocol command per line) in order, once. The report
+// is total throughput and the request latency distribution as seen by the clients.
+public class RentalServerBenchmark {
+    private static final PrintStream OUT = System.out;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 10;
+        List<String> replay = args.length > 2 ? Files.readAllLines(Paths.get(args[2])) : null;
+
+        RentalSystem system = new RentalSystem(new InMemoryStorage());
+        system.setQuiet(true);
+        for (int i = 0; i < clients; i++) {
+            Car car = new Car("Toyota", "Corolla", 2020, 5);
+            car.setLicensePlate(plate(i));
+            system.addVehicle(car);
+            system.addCustomer(new Customer(i, "Client " + i));
+        }
+
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder requests = new LongAdder();
+        LongAdder errors = new LongAdder();
+        try (RentalServer server = new RentalServer(system, 0)) {
+            server.start();
+            CountDownLatch connected = new CountDownLatch(clients);
+            CountDownLatch go = new CountDownLatch(1);
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                int client = i;
+                Thread thread = new Thread(() -> {
+                    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+                         BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                         BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+                        connected.countDown();
+                        go.await();
+                        List<String> commands = replay != null ? replay : roundTrip(client);
+                        do {
+                            for (String command : commands) {
+                                long start = System.nanoTime();
+                                out.write(command);
+                                out.write('\n');
+                                out.flush();
+                                String status = readResponse(in);
+                                latency.recordSince(start);
+                                requests.increment();
+                                if (!status.startsWith("OK")) {
+                                    errors.increment();
+                                }
+                            }
+                        } while (replay == null && System.nanoTime() < deadline);
+                    } catch (IOException | InterruptedException e) {
+                        errors.increment();
+                        connected.countDown();
+                    }
+                }, "client-" + i);
+                thread.setDaemon(true);
+                thread.start();
+                threads.add(thread);
+            }
+            connected.await();
+            long start = System.nanoTime();
+            go.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            OUT.printf("%d clients, %.1f s: %d requests, %.0f req/s, %d errors%n", clients, elapsed,
+                    requests.sum(), requests.sum() / elapsed, errors.sum());
+            OUT.println("latency " + latency);
+        }
+        system.close();
+    }
+
+    private static List<String> roundTrip(int client) {
+        String plate = plate(client);
+        String date = LocalDate.of(2025, 1, 1).toString();
+        return List.of("RENT " + plate + " " + client + " " + date + " 100",
+                "RETURN " + plate + " " + client + " " + date + " 0");
+    }
+
+    private static String plate(int i) {
+        int letters = i / 1000;
+        return String.format("%c%c%c%03d", 'A' + letters / 676 % 26, 'A' + letters / 26 % 26, 'A' + letters % 26, i % 1000);
+    }
+
+    // Returns the status line, skipping the body of multi-line (OK <n>) responses.
+    private static String readResponse(BufferedReader in) throws IOException {
+        String status = in.readLine();
+        if (status == null) {
+            throw new IOException("server closed the connection");
+        }
+        if (status.startsWith("OK ")) {
+            int lines = Integer.parseInt(status.substring(3).trim());
+            for (int i = 0; i < lines; i++) {
+                in.readLine();
+            }
+        }
+        return status;
+    }
+}